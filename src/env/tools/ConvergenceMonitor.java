@@ -0,0 +1,155 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Decides when the training of Q matrices has converged, from two signals over a window of
+ * consecutive episodes: the largest change of a Q value in each episode, and the number of
+ * states whose greedy action has changed since the previous episode.
+ *
+ * <p> The training has converged when, over the last window of episodes, no Q value has
+ * changed by the tolerance or more, and the greedy policy of every monitored goal slot has
+ * stayed the same. The greedy action of a state is the applicable action with the highest Q
+ * value, where ties go to the first applicable action, so that unvisited states have a
+ * stable greedy action. Only the states that have a row in the store are followed, so a
+ * state whose row is allocated by the sparse layout starts from that greedy action.
+ * </p>
+ *
+ * <p> A monitor follows a single training run, and is only used by the thread that runs it.
+ * </p>
+ */
+public final class ConvergenceMonitor {
+
+    private final int window;
+    private final double tolerance;
+    private final QTableStore qTables;
+    private final LearningEnvironment env;
+    private final int[] goals;
+    private final int[][] policies; // the greedy action of each row of each goal slot, in the order of the rows of the goal
+    private final int[] policyCounts; // the number of rows of each goal slot whose greedy action is known
+    private final double[] deltas; // the largest change of a Q value in the last window of episodes
+    private int episodes;
+    private int stableEpisodes;
+    private int lastPolicyChanges;
+
+    /**
+     * Creates a monitor for the Q matrices of the given goal slots
+     *
+     * @param window     the number of consecutive episodes over which the criterion must hold
+     * @param tolerance  the change of a Q value below which the Q value is considered converged
+     * @param qTables    the store of the Q matrices
+     * @param env        the environment, which provides the applicable actions of the states
+     * @param goals      the monitored goal slots
+     */
+    public ConvergenceMonitor(int window,
+                              double tolerance,
+                              QTableStore qTables,
+                              LearningEnvironment env,
+                              int... goals) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must contain at least one episode: " + window);
+        }
+        this.window = window;
+        this.tolerance = tolerance;
+        this.qTables = qTables;
+        this.env = env;
+        this.goals = goals.clone();
+        this.policies = new int[goals.length][0];
+        this.policyCounts = new int[goals.length];
+        this.deltas = new double[window];
+        updatePolicy();
+    }
+
+    /**
+     * Records a completed episode
+     *
+     * @param maxDeltaQ the largest absolute change of a Q value in the episode
+     * @return true if the training has converged
+     */
+    public boolean endEpisode(double maxDeltaQ) {
+        deltas[episodes % window] = Math.abs(maxDeltaQ);
+        episodes++;
+        lastPolicyChanges = updatePolicy();
+        stableEpisodes = lastPolicyChanges == 0 ? stableEpisodes + 1 : 0;
+        return hasConverged();
+    }
+
+    /**
+     * Returns true if the criterion has held over the last window of episodes
+     */
+    public boolean hasConverged() {
+        if (episodes < window || stableEpisodes < window) {
+            return false;
+        }
+        return getWindowMaxDeltaQ() < tolerance;
+    }
+
+    /**
+     * Returns the largest change of a Q value over the last window of episodes
+     */
+    public double getWindowMaxDeltaQ() {
+        double max = 0;
+        for (int i = 0; i < Math.min(episodes, window); i++) {
+            max = Math.max(max, deltas[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of states whose greedy action changed in the last episode
+     */
+    public int getLastPolicyChanges() {
+        return lastPolicyChanges;
+    }
+
+    /**
+     * Returns the number of consecutive episodes, up to the last one, in which the greedy
+     * policy has not changed
+     */
+    public int getStableEpisodes() {
+        return stableEpisodes;
+    }
+
+    public int getEpisodes() {
+        return episodes;
+    }
+
+    /* Recomputes the greedy actions, and returns the number of states whose greedy action changed */
+    private int updatePolicy() {
+        int changes = 0;
+        for (int g = 0; g < goals.length; g++) {
+            int rows = qTables.getGoalRowCount(goals[g]);
+            if (policies[g].length < rows) {
+                policies[g] = Arrays.copyOf(policies[g], Math.max(rows, policies[g].length * 2));
+            }
+
+            for (int index = 0; index < rows; index++) {
+                int row = qTables.getGoalRow(goals[g], index);
+                int[] applicableActions = env.getApplicableActionArray(qTables.getRowState(row));
+                int greedyAction = getGreedyAction(qTables.offsetOfRow(row), applicableActions);
+
+                // a new row was a row of zeros, whose greedy action is the first applicable action
+                int previousAction = index < policyCounts[g] ? policies[g][index] : applicableActions[0];
+                if (previousAction != greedyAction) {
+                    changes++;
+                }
+                policies[g][index] = greedyAction;
+            }
+            policyCounts[g] = rows;
+        }
+        return changes;
+    }
+
+    private int getGreedyAction(int row, int[] applicableActions) {
+        int greedyAction = applicableActions[0];
+        double maxValue = qTables.get(row + greedyAction);
+        for (int i = 1; i < applicableActions.length; i++) {
+            double value = qTables.get(row + applicableActions[i]);
+            if (value > maxValue) {
+                maxValue = value;
+                greedyAction = applicableActions[i];
+            }
+        }
+        return greedyAction;
+    }
+}
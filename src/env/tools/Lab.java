@@ -10,14 +10,20 @@ import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
 import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
 import ch.unisg.ics.interactions.wot.td.schemas.BooleanSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.IntegerSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.NumberSchema;
 import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
-import com.google.common.collect.Sets;
-import org.gradle.internal.impldep.com.google.common.collect.ImmutableSet;
+import wot.ActionBatch;
+import wot.StatusSnapshotService;
+import wot.ThingHttpClient;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * An class that extends {@link LearningEnvironment} for representing a learning
@@ -37,9 +43,23 @@ public class Lab extends LearningEnvironment {
      */
     private ThingDescription td;
 
+    /**
+     * The location of the Thing Description, which identifies the lab for the
+     * HTTP client
+     */
+    private String url;
+
+    /**
+     * The snapshot of the status of the lab, which is shared with the other consumers
+     * of the same Thing Description
+     */
+    private StatusSnapshotService statusSnapshots;
+
     /**
      * The current state of the lab (and of every state of the lab) is formed as a
-     * a list of 7 integer values: [z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine]:
+     * a list of integer values, one per state axis (see {@link #getStateAxes()}). For
+     * the lab of the Interactions group, these are 7 values:
+     * [z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine]:
      * <ul>
      * <li> z1Level: the level of light in Zone 1
      * <li> z2Level: the level of light in Zone 2
@@ -50,96 +70,80 @@ public class Lab extends LearningEnvironment {
      * <li> sunshine: the level of sunshine out of the lab
      * </ul>
      */
-    protected List<Integer> currentState = Arrays.asList(new Integer[7]);
+    protected List<Integer> currentState = Arrays.asList(new Integer[LAB_AXES.size()]);
 
     /**
-     * The state of the lab depends on the values of
-     * z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine
+     * The axis values of the current state, as encoded by the state codec
      */
-    public List<Integer> getCurrentState() {
-        return this.currentState;
-    }
+    private int[] currentValues = new int[LAB_AXES.size()];
 
     /**
-     * z1Level: the level of light in Zone 1
-     * Possible values: 0,1,2,3
-     * Respective keys: 0,1,2,3
+     * The raw values of the readings of the current status, e.g. the lux values of the
+     * light levels
      */
-    private static final HashMap<Integer, Integer> z1Level = new HashMap<>();
+    private double[] currentObservation = new double[LAB_AXES.size()];
 
     /**
-     * z2Level: the level of light in Zone 2
-     * Possible values: 0,1,2,3
-     * Respective keys: 0,1,2,3
+     * The state of the lab depends on the values of its state axes, e.g.
+     * z1Level, z2Level, z1Light, z2Light, z1Blinds, z2Blinds, sunshine
      */
-    private static final HashMap<Integer, Integer> z2Level = new HashMap<>();
+    @Override
+    public List<Integer> getCurrentState() {
+        return this.currentState;
+    }
 
-    /**
-     * z1Light: the status of the lights in Zone 1
-     * Possible values: false, true
-     * Respective keys: 0,1
-     */
-    private static final HashMap<Integer, Boolean> z1Light = new HashMap<>();
+    private static final String WAS = "http://example.org/was#";
+
+    private static final String SUNSHINE = WAS + "Sunshine";
 
     /**
-     * z2Light: the status of the lights in Zone 2
-     * Possible values: false, true
-     * Respective keys: 0,1
+     * The state axes of the lab of the Interactions group:
+     * <ul>
+     * <li> z1Level, z2Level: the level of light in each zone, with the values 0,1,2,3
+     * <li> z1Light, z2Light: the status of the lights in each zone, with the values false, true
+     * <li> z1Blinds, z2Blinds: the status of the blinds in each zone, with the values false, true
+     * <li> sunshine: the level of sunshine out of the lab, with the values 0,1,2,3
+     * </ul>
+     * The axes of a lab are read from the schema of its status (see {@link #createStateAxes()}),
+     * where the axes of these properties come first and in this order, so that the states of
+     * the lab of the Interactions group keep their values.
      */
-    private static final HashMap<Integer, Boolean> z2Light = new HashMap<>();
+    static final List<StateAxis> LAB_AXES = Collections.unmodifiableList(Arrays.asList(
+            StateAxis.levelAxis(WAS + "Z1Level", 4, Lab::discretizeLightLevel),
+            StateAxis.levelAxis(WAS + "Z2Level", 4, Lab::discretizeLightLevel),
+            StateAxis.booleanAxis(WAS + "Z1Light"),
+            StateAxis.booleanAxis(WAS + "Z2Light"),
+            StateAxis.booleanAxis(WAS + "Z1Blinds"),
+            StateAxis.booleanAxis(WAS + "Z2Blinds"),
+            StateAxis.levelAxis(SUNSHINE, 4, Lab::discretizeSunshine)
+    ));
 
     /**
-     * z1Blinds: the status of the blinds in Zone 1
-     * Possible values: false, true
-     * Respective keys: 0,1
+     * The semantic types of the action affordances of the lab of the Interactions group,
+     * whose actions come first in the action space and in this order
      */
-    private static final HashMap<Integer, Boolean> z1Blinds = new HashMap<>();
+    static final List<String> AFFORDANCE_TYPES = Arrays.asList(
+            WAS + "SetZ1Light",
+            WAS + "SetZ2Light",
+            WAS + "SetZ1Blinds",
+            WAS + "SetZ2Blinds"
+    );
 
     /**
-     * z2Blinds: the status of the blinds in Zone 2
-     * Possible values: false, true
-     * Respective keys: 0,1
+     * The namespace of the JSON schema vocabulary, whose types describe the data
+     * schemas rather than the properties of the lab
      */
-    private static final HashMap<Integer, Boolean> z2Blinds = new HashMap<>();
+    private static final String JSON_SCHEMA = "https://www.w3.org/2019/wot/json-schema#";
 
     /**
-     * sunshine: the level of sunshine out of the lab
-     * Possible values: 0,1,2,3
-     * Respective keys: 0,1,2,3
+     * The period with which the status of the lab is read while an action settles,
+     * which defaults to the value of the system property <code>lab.settlePollMillis</code>
+     * (100 ms if not set). Each read without a pushed status is a request to the lab.
      */
-    private static final HashMap<Integer, Integer> sunshine = new HashMap<>();
+    private static final long SETTLE_POLL_MILLIS = Long.getLong("lab.settlePollMillis", 100);
 
     private static final Logger LOGGER = Logger.getLogger(Lab.class.getName());
 
-    static {
-
-        // possible substates for z1Level, z2Level, sunshine
-        for (int i = 0; i < 4; i++) {
-            z1Level.put(i, i);
-            z2Level.put(i, i);
-            sunshine.put(i, i);
-        }
-
-        // possible substates for z1Light
-        z1Light.put(0, false);
-        z1Light.put(1, true);
-
-        // possible substates for z2Light
-        z2Light.put(0, false);
-        z2Light.put(1, true);
-
-        // possible substates for z1Blinds
-        z1Blinds.put(0, false);
-        z1Blinds.put(1, true);
-
-        // possible substates for z2Blinds
-        z2Blinds.put(0, false);
-        z2Blinds.put(1, true);
-
-    }
-
-    ;
-
     /**
      * A {@link Lab} instance is constructed based on the URL of the W3C Web of Things
      * Thing Description of a lab (simulated or real)
@@ -147,18 +151,21 @@ public class Lab extends LearningEnvironment {
      * @param url The location of the W3C Web of Things Thing Description
      */
     public Lab(String url) {
+        this.settlePollMillis = SETTLE_POLL_MILLIS;
 
         try {
 
             // Read the Thing Description from the URL
             this.td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+            this.url = url;
+            this.statusSnapshots = StatusSnapshotService.forThing(url, td);
 
             // Create the state space
             createStateSpace();
             LOGGER.info("The lab has a state space of n=" + stateSpace.size());
 
-            // Print the states of the state space
-            LOGGER.info(String.valueOf(stateSpace));
+            // Print the axes of the state space, as the states are too many to print
+            LOGGER.info("The lab has the state axes " + stateAxes);
 
             // Create the action space
             createActionSpace();
@@ -183,29 +190,7 @@ public class Lab extends LearningEnvironment {
      */
     @Override
     public List<Integer> getCompatibleStates(List<Object> stateDescription) {
-
-        List<Integer> compatibleStates = new ArrayList<>();
-        List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-
-        for (int i = 0; i < stateList.size(); i++) {
-            List<Integer> state = stateList.get(i);
-
-            List<Object> substates = new ArrayList<>();
-
-            substates.add(Lab.z1Level.get(state.get(0)));
-            substates.add(Lab.z2Level.get(state.get(1)));
-            substates.add(Lab.z1Light.get(state.get(2)));
-            substates.add(Lab.z2Light.get(state.get(3)));
-            substates.add(Lab.z1Blinds.get(state.get(4)));
-            substates.add(Lab.z2Blinds.get(state.get(5)));
-            substates.add(Lab.sunshine.get(state.get(6)));
-
-            if (Collections.indexOfSubList(substates, stateDescription) != -1) {
-                compatibleStates.add(i);
-                System.out.println(state);
-            }
-        }
-        return compatibleStates;
+        return getStateIndex().getCompatibleStates(stateDescription);
     }
 
     /**
@@ -213,7 +198,27 @@ public class Lab extends LearningEnvironment {
      */
     @Override
     public int readCurrentState() {
-        Optional<PropertyAffordance> p = this.td.getFirstPropertyBySemanticType("https://example.org/was#Status");
+        return readCurrentState(-1);
+    }
+
+    /**
+     * {@link LearningEnvironment#pollState()}
+     * <p>
+     * Reads the status of the lab without a network call only if it is pushed by
+     * WebSub, since snapshots within the freshness window may predate the action.
+     * </p>
+     */
+    @Override
+    protected int pollState() {
+        return readCurrentState(0);
+    }
+
+    /**
+     * Reads the current state from a status snapshot that is not older than the
+     * given age, or -1 for the freshness window of the snapshot service
+     */
+    private int readCurrentState(long maxAgeMillis) {
+        Optional<PropertyAffordance> p = this.statusSnapshots.getProperty();
 
         if (p.isPresent()) {
 
@@ -222,30 +227,25 @@ public class Lab extends LearningEnvironment {
 
             if (f.isPresent()) {
 
-                TDHttpRequest request = new TDHttpRequest(f.get(), TD.readProperty);
-
                 try {
-                    TDHttpResponse response = request.execute();
+                    TDHttpResponse response = maxAgeMillis < 0 ? statusSnapshots.read()
+                            : statusSnapshots.read(maxAgeMillis);
                     Map<String, Object> status = response.getPayloadAsObject((ObjectSchema) ds);
 
-                    int z1Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z1Level"));
-                    int z2Level = discretizeLightLevel((Double) status.get("http://example.org/was#Z2Level"));
-
-                    boolean z1Light = (Boolean) status.get("http://example.org/was#Z1Light");
-                    boolean z2Light = (Boolean) status.get("http://example.org/was#Z2Light");
-
-                    boolean z1Blinds = (Boolean) status.get("http://example.org/was#Z1Blinds");
-                    boolean z2Blinds = (Boolean) status.get("http://example.org/was#Z2Blinds");
+                    for (int axis = 0; axis < stateAxes.size(); axis++) {
+                        StateAxis stateAxis = stateAxes.get(axis);
+                        Object value = status.get(stateAxis.getSemanticType());
+                        currentValues[axis] = stateAxis.discretize(value);
+                    }
 
-                    int sunshine = discretizeSunshine((Double) status.get("http://example.org/was#Sunshine"));
+                    for (int reading = 0; reading < readings.size(); reading++) {
+                        Reading r = readings.get(reading);
+                        currentObservation[reading] = r.observe(status.get(r.getSemanticType()));
+                    }
 
-                    currentState.set(0, z1Level);
-                    currentState.set(1, z2Level);
-                    currentState.set(2, z1Light ? 1 : 0);
-                    currentState.set(3, z2Light ? 1 : 0);
-                    currentState.set(4, z1Blinds ? 1 : 0);
-                    currentState.set(5, z2Blinds ? 1 : 0);
-                    currentState.set(6, sunshine);
+                    for (int axis = 0; axis < currentValues.length; axis++) {
+                        currentState.set(axis, currentValues[axis]);
+                    }
 
                 } catch (IOException e) {
                     LOGGER.severe(e.getMessage());
@@ -253,8 +253,19 @@ public class Lab extends LearningEnvironment {
             }
         }
 
-        List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-        return stateList.indexOf(this.currentState);
+        if (this.currentState.contains(null)) {
+            // the state has never been read successfully
+            return -1;
+        }
+        return stateCodec.encode(currentValues);
+    }
+
+    /**
+     * {@link LearningEnvironment#getObservation(double[])}
+     */
+    @Override
+    public void getObservation(double[] observation) {
+        System.arraycopy(currentObservation, 0, observation, 0, observation.length);
     }
 
     /**
@@ -264,19 +275,9 @@ public class Lab extends LearningEnvironment {
     public List<Integer> getApplicableActions(int state) {
 
         List<Integer> applicableActions = new ArrayList<>();
-        List<List<Integer>> stateList = new ArrayList<>(stateSpace);
-        List<Integer> st = stateList.get(state);
-
-        for (int action : actionSpace.keySet()) {
-
-            Action a = actionSpace.get(action);
-
-            int stateAxis = a.getApplicableOnStateAxis();
-            int stateValue = a.getApplicableOnStateValue();
 
-            if (st.get(stateAxis) == stateValue) {
-                applicableActions.add(action);
-            }
+        for (int action : getApplicableActionArray(state)) {
+            applicableActions.add(action);
         }
 
         return applicableActions;
@@ -290,58 +291,175 @@ public class Lab extends LearningEnvironment {
         Action a = actionSpace.get(action);
 
         try {
-            a.getRequest().execute();
+            ThingHttpClient.getInstance().execute(a.getRequest(), a.getActionTag(), TD.invokeAction);
             LOGGER.info(a.getRequest().toString());
         } catch (IOException e) {
             LOGGER.severe(e.getMessage());
+        } finally {
+            statusSnapshots.invalidate();
+        }
+
+    }
+
+    /**
+     * {@link LearningEnvironment#performActions(List)}
+     * <p>
+     * Actions on the same affordance that set different properties of its object
+     * payload are combined into one request. The requests are sent concurrently,
+     * and the method returns once all of them have been answered.
+     * </p>
+     */
+    @Override
+    public void performActions(List<Integer> actions) {
+        List<TDHttpRequest> requests = new ArrayList<>();
+        List<CompletableFuture<TDHttpResponse>> responses = new ArrayList<>();
+
+        ActionBatch batch = new ActionBatch();
+        for (int action : actions) {
+            Action a = actionSpace.get(action);
+            batch.add(a.getActionTag(), a.getPayloadTags(), a.getPayload());
+        }
+
+        for (ActionBatch.Invocation invocation : batch.getInvocations()) {
+            TDHttpRequest request = createRequest(invocation);
+            requests.add(request);
+            responses.add(ThingHttpClient.getInstance().executeAsync(url, request,
+                    invocation.getActionTag(), TD.invokeAction));
+        }
+
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                try {
+                    responses.get(i).get();
+                    LOGGER.info(requests.get(i).toString());
+                } catch (ExecutionException e) {
+                    LOGGER.severe(e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.severe(e.getMessage());
+        } finally {
+            statusSnapshots.invalidate();
+        }
+    }
+
+    /**
+     * Creates the request of an invocation of a batch, whose payload sets the properties
+     * of the object payload of the affordance
+     */
+    private TDHttpRequest createRequest(ActionBatch.Invocation invocation) {
+        ActionAffordance affordance = this.td.getFirstActionBySemanticType(invocation.getActionTag()).get();
+        Form form = affordance.getFirstFormForOperationType(TD.invokeAction).get();
+        ObjectSchema schema = (ObjectSchema) affordance.getInputSchema().get();
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        for (int i = 0; i < invocation.getTags().length; i++) {
+            payload.put((String) invocation.getTags()[i], invocation.getPayload()[i]);
         }
 
+        TDHttpRequest request = new TDHttpRequest(form, TD.invokeAction);
+        request.setObjectPayload(schema, payload);
+        return request;
     }
 
     /**
-     * Creates the action space of the lab
+     * Creates the action space of the lab from the action affordances of its Thing
+     * Description: two actions for each boolean property of the input schema of an
+     * affordance, which set the property to false and to true.
+     * <p>
+     * The actions of {@link #AFFORDANCE_TYPES} come first and in this order, followed
+     * by the actions of the other affordances in the order of their semantic types,
+     * so that the action keys do not depend on the order of the Thing Description.
+     * An action is applicable in the states in which the state axis of its property has
+     * the other value, where the axis has the semantic type of the property or, failing
+     * that, is named like the property.
+     * </p>
      */
     private void createActionSpace() {
 
-        this.affordanceTypes = Arrays.asList(
-                "http://example.org/was#SetZ1Light",
-                "http://example.org/was#SetZ2Light",
-                "http://example.org/was#SetZ1Blinds",
-                "http://example.org/was#SetZ2Blinds"
-        );
+        SortedMap<String, ActionAffordance> otherAffordances = new TreeMap<>();
+        Map<String, ActionAffordance> labAffordances = new HashMap<>();
+
+        for (ActionAffordance affordance : td.getActions()) {
+            List<String> types = new ArrayList<>(affordance.getSemanticTypes());
+            Optional<String> labType = types.stream().filter(AFFORDANCE_TYPES::contains).findFirst();
+
+            if (labType.isPresent()) {
+                labAffordances.putIfAbsent(labType.get(), affordance);
+            } else if (!types.isEmpty()) {
+                // the action tag identifies the affordance by semantic type (see createRequest)
+                Collections.sort(types);
+                otherAffordances.putIfAbsent(types.get(0), affordance);
+            }
+        }
+
+        Map<String, ActionAffordance> affordances = new LinkedHashMap<>();
+        for (String affType : AFFORDANCE_TYPES) {
+            if (labAffordances.containsKey(affType)) {
+                affordances.put(affType, labAffordances.get(affType));
+            }
+        }
+        affordances.putAll(otherAffordances);
 
-        for (String affType : affordanceTypes) {
+        this.affordanceTypes = new ArrayList<>(affordances.keySet());
 
-            Optional<ActionAffordance> a = this.td.getFirstActionBySemanticType(affType);
+        for (Map.Entry<String, ActionAffordance> affordance : affordances.entrySet()) {
 
-            if (a.isPresent()) {
+            String affType = affordance.getKey();
+            Optional<Form> f = affordance.getValue().getFirstFormForOperationType(TD.invokeAction);
+            Optional<DataSchema> ds = affordance.getValue().getInputSchema();
 
-                Optional<Form> f = a.get().getFirstFormForOperationType(TD.invokeAction);
-                Optional<DataSchema> ds = a.get().getInputSchema();
+            if (f.isPresent() && ds.isPresent() && ds.get() instanceof ObjectSchema) {
 
-                if (f.isPresent() && ds.isPresent()) {
+                Map<String, DataSchema> props = new TreeMap<>(((ObjectSchema) ds.get()).getProperties());
 
-                    Map<String, DataSchema> props = ((ObjectSchema) ds.get()).getProperties();
-                    Map<String, Object> payload = new HashMap<>();
+                for (String propName : props.keySet()) {
 
-                    for (String propName : props.keySet()) {
+                    DataSchema propDs = props.get(propName);
 
-                        DataSchema propDs = props.get(propName);
+                    if (propDs instanceof BooleanSchema) {
+                        int axis = findStateAxis(propName, propDs);
+                        if (axis < 0) {
+                            LOGGER.warning("No state axis for the property " + propName + " of " + affType);
+                            continue;
+                        }
 
-                        if (propDs instanceof BooleanSchema) {
-                            for (boolean propValue : Arrays.asList(false, true)) {
-                                payload.put(propName, propValue);
-                                TDHttpRequest request = new TDHttpRequest(f.get(), TD.invokeAction);
-                                request.setObjectPayload((ObjectSchema) ds.get(), payload);
-                                Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, request);
-                                actionSpace.put(actionSpace.size(), action);
-                            }
+                        for (boolean propValue : Arrays.asList(false, true)) {
+                            Map<String, Object> payload = new HashMap<>();
+                            payload.put(propName, propValue);
+                            TDHttpRequest request = new TDHttpRequest(f.get(), TD.invokeAction);
+                            request.setObjectPayload((ObjectSchema) ds.get(), payload);
+                            Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, request);
+                            action.setApplicableOn(axis, propValue ? 0 : 1);
+                            actionSpace.put(actionSpace.size(), action);
                         }
                     }
                 }
             }
         }
-        setApplicableActions();
+        compileApplicableActions();
+    }
+
+    /**
+     * Returns the state axis that a property of an action sets, by the semantic types
+     * of the property or else by its name (e.g. "Z1Light" for the axis of
+     * "http://example.org/was#Z1Light"), or -1 if there is none
+     */
+    private int findStateAxis(String propName, DataSchema propDs) {
+        for (String type : propDs.getSemanticTypes()) {
+            int axis = indexOfStateAxis(type);
+            if (axis >= 0) {
+                return axis;
+            }
+        }
+        for (int axis = 0; axis < stateAxes.size(); axis++) {
+            String type = stateAxes.get(axis).getSemanticType();
+            if (type.substring(Math.max(type.lastIndexOf('#'), type.lastIndexOf('/')) + 1).equals(propName)) {
+                return axis;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -351,7 +469,7 @@ public class Lab extends LearningEnvironment {
      * lux in [100,300) -> level 2
      * lux >= 300 -> level 3
      */
-    private int discretizeLightLevel(Double value) {
+    static int discretizeLightLevel(double value) {
         if (value < 50) {
             return 0;
         } else if (value < 100) {
@@ -369,7 +487,7 @@ public class Lab extends LearningEnvironment {
      * lux in [200,700) -> level 2
      * lux >= 700 -> level 3
      */
-    private int discretizeSunshine(Double value) {
+    static int discretizeSunshine(double value) {
         if (value < 50) {
             return 0;
         } else if (value < 200) {
@@ -381,55 +499,133 @@ public class Lab extends LearningEnvironment {
     }
 
     /**
-     * Creates the state space of the lab
+     * Creates the state space of the lab from the state axes of its status
      */
     private void createStateSpace() {
-        this.stateSpace = Sets.cartesianProduct(
-                ImmutableSet.copyOf(z1Level.keySet()),
-                ImmutableSet.copyOf(z2Level.keySet()),
-                ImmutableSet.copyOf(z1Light.keySet()),
-                ImmutableSet.copyOf(z2Light.keySet()),
-                ImmutableSet.copyOf(z1Blinds.keySet()),
-                ImmutableSet.copyOf(z2Blinds.keySet()),
-                ImmutableSet.copyOf(sunshine.keySet())
-        );
-        System.out.println("State space: " + stateSpace.size());
+        initializeStateSpace(createStateAxes());
+        this.readings = createReadings();
+        this.currentState = Arrays.asList(new Integer[stateAxes.size()]);
+        this.currentValues = new int[stateAxes.size()];
+        this.currentObservation = new double[readings.size()];
+        LOGGER.fine("State space: " + stateSpace.size());
     }
 
+    /**
+     * Creates the state axes of the lab from the schema of its status: an axis for each
+     * boolean property, and an axis of 4 levels for each number property of {@link #LAB_AXES},
+     * whose thresholds are known. Other number properties (e.g. an energy cost or the hour)
+     * are not state axes. Properties are identified by their semantic types, which key the
+     * status payload.
+     * <p>
+     * The axes of {@link #LAB_AXES} come first and in this order, followed by the axes
+     * of the other properties in the order of their semantic types. If the status has no
+     * object schema, the lab is assumed to be the lab of the Interactions group.
+     * </p>
+     */
+    private List<StateAxis> createStateAxes() {
+        Optional<PropertyAffordance> p = this.statusSnapshots.getProperty();
+
+        if (!p.isPresent() || !(p.get().getDataSchema() instanceof ObjectSchema)) {
+            LOGGER.warning("The status of the lab has no object schema, assuming the state axes " + LAB_AXES);
+            return LAB_AXES;
+        }
+
+        Map<String, StateAxis> labAxes = new HashMap<>();
+        SortedMap<String, StateAxis> otherAxes = new TreeMap<>();
+
+        for (Map.Entry<String, DataSchema> prop : ((ObjectSchema) p.get().getDataSchema()).getProperties().entrySet()) {
+            DataSchema propDs = prop.getValue();
+            String type = getPropertyType(prop.getKey(), propDs);
+
+            // number properties are only discretized if their thresholds are known, e.g. not for an energy cost
+            Optional<StateAxis> labAxis = LAB_AXES.stream()
+                    .filter(a -> a.getSemanticType().equals(type)).findFirst();
+            StateAxis axis;
+            if (propDs instanceof BooleanSchema) {
+                axis = StateAxis.booleanAxis(type);
+            } else if ((propDs instanceof NumberSchema || propDs instanceof IntegerSchema) && labAxis.isPresent()) {
+                axis = labAxis.get();
+            } else {
+                LOGGER.info("The property " + type + " of the status is not a state axis");
+                continue;
+            }
+
+            if (labAxis.isPresent()) {
+                labAxes.put(type, axis);
+            } else {
+                otherAxes.put(type, axis);
+            }
+        }
+
+        List<StateAxis> axes = new ArrayList<>();
+        for (StateAxis labAxis : LAB_AXES) {
+            if (labAxes.containsKey(labAxis.getSemanticType())) {
+                axes.add(labAxes.get(labAxis.getSemanticType()));
+            }
+        }
+        axes.addAll(otherAxes.values());
+        return axes;
+    }
 
     /**
-     * Returns the action that is applicable based on a given substate
+     * Creates the readings of the lab from the schema of its status: a reading for each
+     * boolean and number property, including the number properties that are not state
+     * axes (e.g. an energy cost or the hour). The readings of the properties of
+     * {@link #LAB_AXES} come first and in this order, followed by the readings of the
+     * other properties in the order of their semantic types. If the status has no object
+     * schema, the lab has the readings of its state axes.
      */
-    private Action getApplicableAction(String stateAxis, Boolean stateValue) {
-        return actionSpace.values()
-                .stream().filter(v ->
-                        stateAxis.equals(v.getActionTag()) &&
-                                Arrays.asList(v.getPayload()).contains(stateValue))
-                .findFirst().orElseThrow(() -> new IllegalStateException("No Action available for " + stateAxis));
+    private List<Reading> createReadings() {
+        Optional<PropertyAffordance> p = this.statusSnapshots.getProperty();
+
+        if (!p.isPresent() || !(p.get().getDataSchema() instanceof ObjectSchema)) {
+            return readings;
+        }
+
+        Map<String, Reading> labReadings = new HashMap<>();
+        SortedMap<String, Reading> otherReadings = new TreeMap<>();
+
+        for (Map.Entry<String, DataSchema> prop : ((ObjectSchema) p.get().getDataSchema()).getProperties().entrySet()) {
+            DataSchema propDs = prop.getValue();
+            String type = getPropertyType(prop.getKey(), propDs);
+
+            Reading reading;
+            if (propDs instanceof BooleanSchema) {
+                reading = Reading.booleanReading(type);
+            } else if (propDs instanceof NumberSchema || propDs instanceof IntegerSchema) {
+                reading = Reading.numberReading(type);
+            } else {
+                continue;
+            }
+
+            if (LAB_AXES.stream().anyMatch(labAxis -> labAxis.getSemanticType().equals(type))) {
+                labReadings.put(type, reading);
+            } else {
+                otherReadings.put(type, reading);
+            }
+        }
+
+        List<Reading> statusReadings = new ArrayList<>();
+        for (StateAxis labAxis : LAB_AXES) {
+            if (labReadings.containsKey(labAxis.getSemanticType())) {
+                statusReadings.add(labReadings.get(labAxis.getSemanticType()));
+            }
+        }
+        statusReadings.addAll(otherReadings.values());
+        return Collections.unmodifiableList(statusReadings);
     }
 
     /**
-     * Set the applicable actions for each substate
+     * Returns the key of a property of the status in the status payload, which is keyed by
+     * the semantic types of the properties (preferring those of {@link #LAB_AXES}), or else
+     * by their names
      */
-    private void setApplicableActions() {
-
-        Action z1LightOnValidAction = getApplicableAction("http://example.org/was#SetZ1Light", true);
-        Action z1LightOffValidAction = getApplicableAction("http://example.org/was#SetZ1Light", false);
-        Action z2LightOnValidAction = getApplicableAction("http://example.org/was#SetZ2Light", true);
-        Action z2LightOffValidAction = getApplicableAction("http://example.org/was#SetZ2Light", false);
-        Action z1BlindsUpValidAction = getApplicableAction("http://example.org/was#SetZ1Blinds", true);
-        Action z1BlindsDownValidAction = getApplicableAction("http://example.org/was#SetZ1Blinds", false);
-        Action z2BlindsUpValidAction = getApplicableAction("http://example.org/was#SetZ2Blinds", true);
-        Action z2BlindsDownValidAction = getApplicableAction("http://example.org/was#SetZ2Blinds", false);
-
-
-        z1LightOnValidAction.setApplicableOn(2, 0);
-        z1LightOffValidAction.setApplicableOn(2, 1);
-        z2LightOnValidAction.setApplicableOn(3, 0);
-        z2LightOffValidAction.setApplicableOn(3, 1);
-        z1BlindsUpValidAction.setApplicableOn(4, 0);
-        z1BlindsDownValidAction.setApplicableOn(4, 1);
-        z2BlindsUpValidAction.setApplicableOn(5, 0);
-        z2BlindsDownValidAction.setApplicableOn(5, 1);
+    private static String getPropertyType(String propName, DataSchema propDs) {
+        List<String> types = propDs.getSemanticTypes().stream()
+                .filter(t -> !t.startsWith(JSON_SCHEMA)).sorted().collect(Collectors.toList());
+
+        return types.stream()
+                .filter(t -> LAB_AXES.stream().anyMatch(labAxis -> labAxis.getSemanticType().equals(t)))
+                .findFirst().orElse(types.isEmpty() ? propName : types.get(0));
     }
 }
@@ -0,0 +1,63 @@
+package tools;
+
+/**
+ * Estimates the latency of an actuator from measured samples, as an exponentially
+ * weighted moving average of the latency and of its deviation (in the same way as
+ * TCP estimates the round-trip time).
+ *
+ * <p> The estimated bound {@link #getBoundMillis()} is the average plus four times
+ * the deviation, but at least a slowly decaying maximum of the samples, so that a
+ * wait of that length covers almost all observed latencies of the actuator, even if
+ * the latencies are spread evenly (e.g. by the tick of a simulator).
+ * </p>
+ */
+public final class LatencyEstimate {
+
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final double MAX_DECAY = 0.99;
+
+    private double averageMillis;
+    private double deviationMillis;
+    private double maxMillis;
+    private long samples;
+
+    /**
+     * Adds a measured latency to the estimate
+     *
+     * @param millis the measured latency in milliseconds
+     */
+    public void addSample(long millis) {
+        if (samples == 0) {
+            averageMillis = millis;
+            deviationMillis = millis / 2.0;
+        } else {
+            deviationMillis = (1 - BETA) * deviationMillis + BETA * Math.abs(averageMillis - millis);
+            averageMillis = (1 - ALPHA) * averageMillis + ALPHA * millis;
+        }
+        maxMillis = Math.max(millis, MAX_DECAY * maxMillis);
+        samples++;
+    }
+
+    public double getAverageMillis() {
+        return averageMillis;
+    }
+
+    public double getDeviationMillis() {
+        return deviationMillis;
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Returns the time after which the effects of the actuator are expected to be
+     * observable
+     *
+     * @return the bound in milliseconds
+     */
+    public long getBoundMillis() {
+        return (long) Math.ceil(Math.max(averageMillis + 4 * deviationMillis, maxMillis));
+    }
+}
@@ -1,5 +1,10 @@
 package tools;
 
+import com.google.common.collect.ContiguousSet;
+import com.google.common.collect.DiscreteDomain;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
+
 import java.util.*;
 
 /**
@@ -18,6 +23,54 @@ public abstract class LearningEnvironment {
    */
   protected Set<List<Integer>> stateSpace = new HashSet<>();
 
+  /**
+   * The codec that maps each state of the state space to its position in the
+   * state space and back, without looking up the state space.
+   */
+  protected StateCodec stateCodec;
+
+  /**
+   * The axes of the state space, e.g. the light level and the status of the
+   * lights in each zone, in the order of the axes of the state codec.
+   */
+  protected List<StateAxis> stateAxes = Collections.emptyList();
+
+  /**
+   * The raw readings of the status of the environment, in the order of the
+   * values of {@link #getObservation(double[])}. By default, a reading per
+   * state axis.
+   */
+  protected List<Reading> readings = Collections.emptyList();
+
+  /**
+   * The inverted index of the state space, which finds the states that are
+   * compatible to a substate description without enumerating the state space.
+   * Built with the state space, so that the first query does not pay for it.
+   */
+  private StateIndex stateIndex;
+
+  /**
+   * The keys of the actions that are applicable in each state, indexed by the
+   * integer value that represents the state, or by the values of the actuator
+   * axes in large state spaces. Compiled once from the applicability of the
+   * actions of the action space.
+   */
+  protected int[][] applicableActionTable = new int[0][];
+
+  /**
+   * The state axes on which actions are applicable, and the strides of their
+   * values in the index of the applicable action table, if the table is indexed
+   * by the values of the actuator axes; null if it is indexed by state.
+   */
+  private int[] actuatorAxes;
+  private int[] actuatorStrides;
+
+  /**
+   * The largest state space for which the applicable actions are compiled for
+   * each state, rather than for each combination of values of the actuator axes.
+   */
+  private static final int MAX_STATES_PER_ACTION_TABLE = 1 << 16;
+
   /**
    * The action space of the learning environment.
    * <p>
@@ -34,6 +87,22 @@ public abstract class LearningEnvironment {
    */
   protected List<String> affordanceTypes = new ArrayList<>();
 
+  /**
+   * The measured actuation latency of each actuator, by the semantic type of the
+   * actions on the actuator (see {@link #settle(int, List)}).
+   */
+  protected Map<String, LatencyEstimate> actuationLatencies = new HashMap<>();
+
+  /**
+   * The period with which {@link #settle(int, List)} reads the state, the time
+   * after which it gives up waiting for a stable state, and the number of
+   * consecutive reads of the same state that make a state stable as long as the
+   * actuation latency is unknown.
+   */
+  protected long settlePollMillis = 10;
+  protected long settleTimeoutMillis = 1000;
+  protected int settleStableReads = 2;
+
   /**
    * Returns the size of the state space
    *
@@ -43,6 +112,111 @@ public abstract class LearningEnvironment {
     return stateSpace.size();
   }
 
+  /**
+   * Returns the codec of the state space, which encodes state descriptions
+   * (e.g. [0,1,0,1,0,0,2]) to the integer values that represent the states
+   * and decodes them back
+   *
+   * @return the state codec
+   */
+  public StateCodec getStateCodec() {
+    return stateCodec;
+  }
+
+  /**
+   * Returns the axes of the state space, in the order of the values of state
+   * descriptions (e.g. [0,1,0,1,0,0,2])
+   *
+   * @return the state axes
+   */
+  public List<StateAxis> getStateAxes() {
+    return stateAxes;
+  }
+
+  /**
+   * Returns the raw readings of the status of the environment, e.g. the lux
+   * values of the light levels, in the order of the values of
+   * {@link #getObservation(double[])}. Unlike the state axes, the readings
+   * do not depend on how the status is discretized.
+   *
+   * @return the readings
+   */
+  public List<Reading> getReadings() {
+    return readings;
+  }
+
+  /**
+   * Returns the state axis of a property of the status of the environment
+   *
+   * @param semanticType the semantic type of the property, e.g. "http://example.org/was#Z1Light"
+   * @return the index of the axis, or -1 if no axis has the semantic type
+   */
+  public int indexOfStateAxis(String semanticType) {
+    for (int axis = 0; axis < stateAxes.size(); axis++) {
+      if (stateAxes.get(axis).getSemanticType().equals(semanticType)) {
+        return axis;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the description of a state by the values that agents use, e.g.
+   * [2,3,false,false,true,true,2] for the state [2,3,0,0,1,1,2]
+   *
+   * @param state the state
+   * @return the state description
+   */
+  public List<Object> describeState(int state) {
+    List<Object> description = new ArrayList<>(stateAxes.size());
+    for (int axis = 0; axis < stateAxes.size(); axis++) {
+      description.add(stateAxes.get(axis).getValues().get(stateCodec.getValue(state, axis)));
+    }
+    return description;
+  }
+
+  /**
+   * Creates the state space, the state codec and the state index of the given
+   * axes. The state space is the cartesian product of the values of the axes,
+   * which is not materialized.
+   *
+   * @param axes the state axes
+   */
+  protected void initializeStateSpace(List<StateAxis> axes) {
+    List<Set<Integer>> values = new ArrayList<>();
+    int[] radices = new int[axes.size()];
+
+    for (int axis = 0; axis < axes.size(); axis++) {
+      radices[axis] = axes.get(axis).getRadix();
+      values.add(ContiguousSet.create(Range.closedOpen(0, radices[axis]), DiscreteDomain.integers()));
+    }
+
+    this.stateAxes = Collections.unmodifiableList(new ArrayList<>(axes));
+    List<Reading> axisReadings = new ArrayList<>();
+    for (StateAxis axis : axes) {
+      axisReadings.add(axis.isBoolean() ? Reading.booleanReading(axis.getSemanticType())
+          : Reading.numberReading(axis.getSemanticType()));
+    }
+    this.readings = Collections.unmodifiableList(axisReadings);
+    this.stateSpace = Sets.cartesianProduct(values);
+    this.stateCodec = new StateCodec(radices);
+
+    List<List<Object>> axisValues = new ArrayList<>();
+    for (StateAxis axis : axes) {
+      axisValues.add(axis.getValues());
+    }
+    this.stateIndex = new StateIndex(stateCodec, axisValues);
+  }
+
+  /**
+   * Returns the inverted index of the state space
+   *
+   * @return the state index
+   */
+  protected StateIndex getStateIndex() {
+    return stateIndex;
+  }
+
   /**
    * Returns the size of the action space
    *
@@ -110,6 +284,87 @@ public abstract class LearningEnvironment {
    */
   public abstract List<Integer> getApplicableActions(int state);
 
+  /**
+   * Returns the keys of the actions that are applicable in a given state, in
+   * ascending order, without allocating.
+   * <p>
+   * The returned array is shared by all callers and must not be modified.
+   * </p>
+   *
+   * @param state the state
+   * @return the applicable actions
+   */
+  public int[] getApplicableActionArray(int state) {
+    if (actuatorAxes == null) {
+      return applicableActionTable[state];
+    }
+    int index = 0;
+    for (int i = 0; i < actuatorAxes.length; i++) {
+      index += stateCodec.getValue(state, actuatorAxes[i]) * actuatorStrides[i];
+    }
+    return applicableActionTable[index];
+  }
+
+  /**
+   * Compiles the applicability of the actions of the action space (see
+   * {@link Action#setApplicableOn(int, int)}) into the applicable action table.
+   * Needs to be called once the state codec and the action space are created.
+   * <p>
+   * The applicable actions only depend on the values of the actuator axes, so
+   * in large state spaces they are compiled for each combination of these
+   * values, and looked up by projecting the state onto the actuator axes.
+   * </p>
+   */
+  protected void compileApplicableActions() {
+    int actionCount = actionSpace.size();
+    int[] buffer = new int[actionCount];
+    int[] values = new int[stateCodec.getAxisCount()];
+
+    SortedSet<Integer> axes = new TreeSet<>();
+    for (Action action : actionSpace.values()) {
+      axes.add(action.getApplicableOnStateAxis());
+    }
+
+    int tableSize = stateCodec.getStateCount();
+    if (tableSize > MAX_STATES_PER_ACTION_TABLE) {
+      actuatorAxes = new int[axes.size()];
+      actuatorStrides = new int[axes.size()];
+      int i = 0;
+      for (int axis : axes) {
+        actuatorAxes[i++] = axis;
+      }
+      tableSize = 1;
+      for (i = actuatorAxes.length - 1; i >= 0; i--) {
+        actuatorStrides[i] = tableSize;
+        tableSize *= stateCodec.getRadix(actuatorAxes[i]);
+      }
+    } else {
+      actuatorAxes = null;
+      actuatorStrides = null;
+    }
+
+    applicableActionTable = new int[tableSize][];
+
+    for (int index = 0; index < tableSize; index++) {
+      if (actuatorAxes == null) {
+        stateCodec.decode(index, values);
+      } else {
+        for (int i = 0; i < actuatorAxes.length; i++) {
+          values[actuatorAxes[i]] = index / actuatorStrides[i] % stateCodec.getRadix(actuatorAxes[i]);
+        }
+      }
+
+      int count = 0;
+      for (int action = 0; action < actionCount; action++) {
+        Action a = actionSpace.get(action);
+        if (values[a.getApplicableOnStateAxis()] == a.getApplicableOnStateValue()) {
+          buffer[count++] = action;
+        }
+      }
+      applicableActionTable[index] = Arrays.copyOf(buffer, count);
+    }
+  }
+
   /**
    * Performs an action in the environment.
    * <p>
@@ -121,4 +376,243 @@ public abstract class LearningEnvironment {
    */
   public abstract void performAction(int action);
 
+  /**
+   * Performs several actions, e.g. the actuator changes that are needed for
+   * reaching a goal state, and returns once all of them have been acknowledged.
+   * <p>
+   * By default, the actions are performed one after another. Environments that
+   * can dispatch actions concurrently or combine them should override this method.
+   * </p>
+   *
+   * @param actions the actions, as keys of the action space
+   */
+  public void performActions(List<Integer> actions) {
+    for (int action : actions) {
+      performAction(action);
+    }
+  }
+
+  /**
+   * Samples a start state for an episode, e.g. instead of randomizing the
+   * environment with random actions.
+   * <p>
+   * Every actuator axis (a state axis on which actions are applicable) gets a
+   * random value, while the other axes keep the values of the current state.
+   * </p>
+   *
+   * @param random the random number generator
+   * @return the sampled state
+   */
+  public int sampleStartState(Random random) {
+    int state = readCurrentState();
+    Set<Integer> actuatorAxes = new TreeSet<>();
+
+    for (Action action : actionSpace.values()) {
+      actuatorAxes.add(action.getApplicableOnStateAxis());
+    }
+
+    for (int axis : actuatorAxes) {
+      state = stateCodec.withValue(state, axis, random.nextInt(stateCodec.getRadix(axis)));
+    }
+    return state;
+  }
+
+  /**
+   * Drives the actuators of the environment to the values of a target state,
+   * with at most one action per actuator axis whose value differs, and returns
+   * the state once the actions have settled.
+   * <p>
+   * The actions are performed with {@link #performActions(List)}. Axes that are
+   * not actuators (e.g. sensed light levels) follow the actuators over time, so
+   * the state is read with {@link #settle(int, List)}.
+   * </p>
+   *
+   * @param targetState the state to drive the actuators to
+   * @return the settled state, or -1 if the state cannot be read
+   */
+  public int resetTo(int targetState) {
+    int state = readCurrentState();
+    if (state < 0) {
+      return state;
+    }
+
+    List<Integer> actions = new ArrayList<>();
+    Set<Integer> changedAxes = new HashSet<>();
+
+    for (int action : getApplicableActionArray(state)) {
+      int axis = actionSpace.get(action).getApplicableOnStateAxis();
+      if (stateCodec.getValue(targetState, axis) != stateCodec.getValue(state, axis)
+          && changedAxes.add(axis)) {
+        actions.add(action);
+      }
+    }
+
+    if (actions.isEmpty()) {
+      return state;
+    }
+    performActions(actions);
+    return settle(state, actions);
+  }
+
+  /**
+   * Returns the current state of the environment as a list of substate values,
+   * e.g., [0,1,0,1,0,0,2], as observed by the last call of
+   * {@link #readCurrentState()}.
+   *
+   * @return the current state description
+   */
+  public abstract List<Integer> getCurrentState();
+
+  /**
+   * Copies the raw values of the status of the environment, as observed by the
+   * last call of {@link #readCurrentState()}, by reading (see {@link #getReadings()}):
+   * e.g. the lux values of the light levels before they are discretized, and 0
+   * or 1 for boolean properties.
+   * <p>
+   * By default, the values of the axes of the current state are copied, which is
+   * all that environments without continuous readings can provide. The values
+   * are copied without allocating, so that learners can read them at every step.
+   * </p>
+   *
+   * @param observation the array that receives a value per reading
+   */
+  public void getObservation(double[] observation) {
+    List<Integer> values = getCurrentState();
+    for (int axis = 0; axis < observation.length; axis++) {
+      observation[axis] = values.get(axis);
+    }
+  }
+
+  /**
+   * Waits until the effects of a performed action have settled, and returns the
+   * observed state (see {@link #settle(int, List)}).
+   *
+   * @param state  the state in which the action has been performed
+   * @param action the action that has been performed
+   * @return the settled state
+   */
+  public int settle(int state, int action) {
+    return settle(state, Collections.singletonList(action));
+  }
+
+  /**
+   * Waits until the effects of performed actions have settled, and returns the
+   * observed state.
+   * <p>
+   * Once the actuation latency of every actuator of the actions is known, the
+   * state is first read shortly before the largest estimated bound, and the
+   * settled state is returned as soon as the bound has passed and a read confirms
+   * the changed state. As long as a latency is unknown, the state is read every
+   * {@link #settlePollMillis} until it has changed and has then not changed for
+   * {@link #settleStableReads} reads. In either case, the state is read until the
+   * timeout at most.
+   * </p>
+   * <p>
+   * The time until the last change before the state is first confirmed is recorded
+   * as the actuation latency of the actuators, so that later actions on a fast
+   * actuator return sooner. Changes after the confirmation are not recorded, as
+   * they are caused by the environment (e.g. the sunshine) rather than by the
+   * actions. Actions whose effects are not observed before the timeout record
+   * nothing.
+   * </p>
+   *
+   * @param state   the state in which the actions have been performed
+   * @param actions the actions that have been performed
+   * @return the settled state
+   */
+  public int settle(int state, List<Integer> actions) {
+    long boundMillis = getLatencyBoundMillis(actions);
+    int requiredReads = boundMillis >= 0 ? 1 : settleStableReads;
+
+    long start = currentTimeMillis();
+    long deadline = start + settleTimeoutMillis;
+    int settledState = pollState();
+    long settledChange = settledState != state ? currentTimeMillis() : -1;
+    int stableReads = 0;
+
+    while (currentTimeMillis() < deadline
+        && (settledChange < 0 || stableReads < requiredReads || currentTimeMillis() - start < boundMillis)) {
+      elapse(settlePollMillis);
+      int newState = pollState();
+
+      if (newState != settledState) {
+        settledState = newState;
+        settledChange = currentTimeMillis();
+        stableReads = 0;
+      } else if (settledChange >= 0) {
+        stableReads++;
+      }
+    }
+
+    if (settledChange >= 0) {
+      long latencyMillis = settledChange - start;
+      for (int action : actions) {
+        actuationLatencies.computeIfAbsent(actionSpace.get(action).getActionTag(),
+            key -> new LatencyEstimate()).addSample(latencyMillis);
+      }
+    }
+    return settledState;
+  }
+
+  /* The largest estimated latency bound of the actuators of the actions, or -1 if a latency is unknown */
+  private long getLatencyBoundMillis(List<Integer> actions) {
+    long boundMillis = 0;
+    for (int action : actions) {
+      LatencyEstimate latency = actuationLatencies.get(actionSpace.get(action).getActionTag());
+      if (latency == null || latency.getSampleCount() == 0) {
+        return -1;
+      }
+      boundMillis = Math.max(boundMillis, latency.getBoundMillis());
+    }
+    return boundMillis;
+  }
+
+  /**
+   * Returns the measured actuation latency of an actuator.
+   *
+   * @param actuator the semantic type of the actions on the actuator
+   * @return the latency estimate, if any action on the actuator has settled
+   */
+  public Optional<LatencyEstimate> getActuationLatency(String actuator) {
+    return Optional.ofNullable(actuationLatencies.get(actuator));
+  }
+
+  /**
+   * Reads the current state for {@link #settle(int, List)}. Environments that cache
+   * observations should bypass the cache.
+   *
+   * @return the current state
+   */
+  protected int pollState() {
+    return readCurrentState();
+  }
+
+  /**
+   * Returns the current time of the environment, which is used for measuring
+   * actuation latencies. Simulated environments return their simulated time.
+   *
+   * @return the time in milliseconds
+   */
+  protected long currentTimeMillis() {
+    return System.nanoTime() / 1_000_000;
+  }
+
+  /**
+   * Lets a given amount of time pass in the environment, e.g. for the effects
+   * of a performed action to become observable.
+   * <p>
+   * Environments that run against a real device wait for the given time.
+   * Simulated environments may advance their own clock instead.
+   * </p>
+   *
+   * @param millis the time to pass in milliseconds
+   */
+  public void elapse(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
 }
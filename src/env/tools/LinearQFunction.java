@@ -0,0 +1,178 @@
+package tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * A linear approximation of the Q values of several goal descriptions over the features
+ * of a {@link TileCoder}: the Q value of an observation and an action is the sum of the
+ * weights of its active features.
+ *
+ * <p> Each goal description (e.g. "[2,3]") has a primitive array of
+ * {@link TileCoder#getWeightCount()} weights, which is updated in place by
+ * {@link #update(double[], int[], double)}, so that neither evaluating nor updating a
+ * Q value allocates. The memory of a goal is fixed by the tile coder, independently of
+ * the number of sensors and of the states that have been visited.
+ * </p>
+ *
+ * <p> Adding goals is not thread-safe. Once the goals are added, the weights of
+ * different goals can be updated by different threads.
+ * </p>
+ */
+public final class LinearQFunction {
+
+    private static final int MAGIC = 0x4C494E51; // "LINQ"
+    private static final int VERSION = 1;
+
+    private final TileCoder tileCoder;
+    private final Map<String, double[]> weights = new LinkedHashMap<>();
+
+    /**
+     * A {@link LinearQFunction} instance is constructed based on the tile coder of its features
+     *
+     * @param tileCoder the tile coder
+     */
+    public LinearQFunction(TileCoder tileCoder) {
+        this.tileCoder = tileCoder;
+    }
+
+    public TileCoder getTileCoder() {
+        return tileCoder;
+    }
+
+    /**
+     * Returns the goal descriptions of the stored weights, in the order in which they were added
+     *
+     * @return the goal descriptions
+     */
+    public Set<String> getGoalKeys() {
+        return Collections.unmodifiableSet(weights.keySet());
+    }
+
+    public boolean containsGoal(String key) {
+        return weights.containsKey(key);
+    }
+
+    /**
+     * Returns the weights of a goal description, which are shared and updated in place
+     *
+     * @param key the goal description, e.g. "[2,3]"
+     * @return the weights, or null if the goal is unknown
+     */
+    public double[] getWeights(String key) {
+        return weights.get(key);
+    }
+
+    /**
+     * Adds weights of zero for a goal description, if the goal is unknown
+     *
+     * @param key the goal description, e.g. "[2,3]"
+     * @return the weights of the goal
+     */
+    public double[] addGoal(String key) {
+        return weights.computeIfAbsent(key, k -> new double[tileCoder.getWeightCount()]);
+    }
+
+    /**
+     * Returns the approximated Q value of the given active features
+     *
+     * @param weights  the weights of a goal
+     * @param features the active features, see {@link TileCoder#encode(double[], int, int[])}
+     * @return the Q value
+     */
+    public static double value(double[] weights, int[] features) {
+        double value = 0;
+        for (int feature : features) {
+            value += weights[feature];
+        }
+        return value;
+    }
+
+    /**
+     * Moves the approximated Q value of the given active features by a step, which is
+     * shared evenly by the weights of the features (a gradient step of the squared error)
+     *
+     * @param weights  the weights of a goal
+     * @param features the active features, see {@link TileCoder#encode(double[], int, int[])}
+     * @param step     the change of the Q value, e.g. alpha times the temporal-difference error
+     */
+    public static void update(double[] weights, int[] features, double step) {
+        double share = step / features.length;
+        for (int feature : features) {
+            weights[feature] += share;
+        }
+    }
+
+    /**
+     * Writes the tile coding and the weights of all goals to a file
+     *
+     * @param path the location of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tileCoder.getTilings());
+            out.writeInt(tileCoder.getWeightCount());
+            out.writeInt(tileCoder.getDimensionCount());
+            for (int dimension = 0; dimension < tileCoder.getDimensionCount(); dimension++) {
+                out.writeDouble(tileCoder.getTileWidth(dimension));
+            }
+            out.writeInt(weights.size());
+            for (Map.Entry<String, double[]> goal : weights.entrySet()) {
+                out.writeUTF(goal.getKey());
+                for (double weight : goal.getValue()) {
+                    out.writeDouble(weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a linear Q function from a file that has been written by {@link #write(Path)}
+     *
+     * @param path the location of the file
+     * @return the linear Q function, with the tile coding that it had when it was written
+     * @throws IOException if the file cannot be read or is not a linear Q function file
+     */
+    public static LinearQFunction read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a linear Q function file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported linear Q function file version " + version + ": " + path);
+            }
+
+            int tilings = in.readInt();
+            int weightCount = in.readInt();
+            int dimensionCount = in.readInt();
+            if (dimensionCount < 0) {
+                throw new IOException("Corrupted linear Q function file: " + path);
+            }
+            double[] tileWidths = new double[dimensionCount];
+            for (int dimension = 0; dimension < tileWidths.length; dimension++) {
+                tileWidths[dimension] = in.readDouble();
+            }
+            LinearQFunction qFunction;
+            try {
+                qFunction = new LinearQFunction(new TileCoder(tilings, weightCount, tileWidths));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupted linear Q function file: " + path, e);
+            }
+
+            int goalCount = in.readInt();
+            for (int goal = 0; goal < goalCount; goal++) {
+                double[] goalWeights = qFunction.addGoal(in.readUTF());
+                for (int weight = 0; weight < weightCount; weight++) {
+                    goalWeights[weight] = in.readDouble();
+                }
+            }
+            return qFunction;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package tools;
+
+import cartago.Artifact;
+import cartago.OPERATION;
+import cartago.OpFeedbackParam;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * An alternative to {@link QLearner} that approximates the Q values of a goal description
+ * linearly over the raw readings of the lab (e.g. the lux values of Z1Level, Z2Level and
+ * Sunshine), instead of storing a Q value for each discretized state.
+ *
+ * <p> The readings are the boolean and number properties of the status schema of the lab
+ * (see {@link LearningEnvironment#getReadings()}), including number properties that are
+ * not discretized to state axes, e.g. an energy cost. They are tile coded by a
+ * {@link TileCoder}: number properties are tiled on a logarithmic scale of their values,
+ * which resolves low lux values more finely than high ones, while boolean properties
+ * (e.g. the status of the lights) are discrete dimensions. The Q values are learned by
+ * semi-gradient Q-learning on the weights of a {@link LinearQFunction}, whose memory is
+ * fixed by the tile coding, so that adding sensors or zones to the Thing Description adds
+ * dimensions but no memory.
+ * </p>
+ *
+ * <p> The operations calculateQ and getActionFromState have the same signatures as those
+ * of {@link QLearner}, so that agents can use either artifact. Goal descriptions are still
+ * given as light levels (e.g. [2,3]), and the reward is given when the discretized light
+ * levels reach them.
+ * </p>
+ */
+public class LinearQLearner extends Artifact {
+
+    private Lab lab; // the lab environment that will be learnt
+    private LearningEnvironment environment; // the environment against which the Q values are learned
+    private LinearQFunction qFunction; // the weights learned for different goals
+    private int tilings = TILINGS; // the number of tilings of the tile coding
+    private int weightCount = WEIGHT_COUNT; // the number of weights of each goal
+    private double tileWidth = TILE_WIDTH; // the tile width of the number properties, on the scale of log(1 + value)
+    private final Random random = new Random();
+    private static final int TILINGS = 8;
+    private static final int WEIGHT_COUNT = 1 << 16;
+    private static final double TILE_WIDTH = 1.0;
+    private static final int STEP_MILLIS = 50; // the tick of the simulated lab
+    private static final int MAX_EPISODE_STEPS = 1000; // ends episodes whose goal cannot be reached, e.g. [0,3]
+    private static final String FILENAME = "linearq.bin";
+    private static final Logger LOGGER = Logger.getLogger(LinearQLearner.class.getName());
+
+    @SuppressWarnings("unused")
+    public void init(String environmentURL) {
+        // the URL of the W3C Thing Description of the lab Thing
+        this.lab = new Lab(environmentURL);
+        this.environment = lab;
+        LOGGER.info("Initialized with " + lab.getReadings().size() + " readings and an action space of m="
+                + lab.getActionCount());
+    }
+
+    /**
+     * Initializes the artifact against the lab Thing described by the W3C Thing Description
+     * at the given URL. If simulated is true, the Q values are learned against an in-process
+     * {@link SimulatedLab}, and the lab Thing is only used for acting.
+     *
+     * @param environmentURL the URL of the W3C Thing Description of the lab Thing
+     * @param simulated      whether the Q values are learned against a simulated lab
+     */
+    @SuppressWarnings("unused")
+    public void init(String environmentURL, boolean simulated) {
+        init(environmentURL);
+
+        if (simulated) {
+            if (!SimulatedLab.hasStateAxes(lab.getStateAxes())) {
+                throw new IllegalArgumentException("The simulated lab cannot simulate the state axes "
+                        + lab.getStateAxes() + " of the lab");
+            }
+            SimulatedLab simulatedLab = new SimulatedLab(random.nextLong(), STEP_MILLIS);
+            if (!simulatedLab.getReadings().equals(lab.getReadings())) {
+                throw new IllegalArgumentException("The simulated lab cannot simulate the readings "
+                        + lab.getReadings() + " of the lab");
+            }
+            this.environment = simulatedLab;
+            LOGGER.info("Learning Q values against a simulated lab");
+        }
+    }
+
+    /**
+     * Sets the tile coding of the readings. Known weights of another tile coding are
+     * discarded when the next goal description is learned.
+     *
+     * @param tilingsObj     the number of tilings (8 by default)
+     * @param weightCountObj the number of weights of each goal description, a power of 2 (2^16 by default)
+     * @param tileWidthObj   the tile width of the number properties, on the scale of
+     *                       log(1 + value), e.g. 1.0 (default) for tiles of a factor e of lux
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setTileCoding(Object tilingsObj, Object weightCountObj, Object tileWidthObj) {
+        int tilings = Integer.parseInt(tilingsObj.toString());
+        int weightCount = Integer.parseInt(weightCountObj.toString());
+        double tileWidth = Double.parseDouble(tileWidthObj.toString());
+
+        try {
+            new TileCoder(tilings, weightCount, tileWidth);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
+            return;
+        }
+        if (!(tileWidth > 0)) {
+            failed("The tile width must be positive: " + tileWidth);
+            return;
+        }
+        this.tilings = tilings;
+        this.weightCount = weightCount;
+        this.tileWidth = tileWidth;
+        this.qFunction = null;
+    }
+
+    /**
+     * Learns the Q values of the lab against a goal description, e.g. [2,3] for the light
+     * level 2 in Zone 1 and the light level 3 in Zone 2 (see {@link QLearner#calculateQ}).
+     * A goal description that is already known is not learned again.
+     *
+     * @param goalDescription the desired goal against the which the Q values are learned (e.g., [2,3])
+     * @param episodesObj     the number of episodes used for learning the Q values
+     * @param alphaObj        the learning rate with range [0,1].
+     * @param gammaObj        the discount factor [0,1]
+     * @param epsilonObj      the exploration probability [0,1]
+     * @param rewardObj       the reward assigned when reaching the goal state
+     **/
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void calculateQ(Object[] goalDescription,
+                           Object episodesObj,
+                           Object alphaObj,
+                           Object gammaObj,
+                           Object epsilonObj,
+                           Object rewardObj) {
+        int episodes = Integer.parseInt(episodesObj.toString());
+        double alpha = Double.parseDouble(alphaObj.toString());
+        double gamma = Double.parseDouble(gammaObj.toString());
+        double epsilon = Double.parseDouble(epsilonObj.toString());
+        int reward = Integer.parseInt(rewardObj.toString());
+        int z1 = Integer.parseInt(goalDescription[0].toString());
+        int z2 = Integer.parseInt(goalDescription[1].toString());
+
+        initializeQFunction();
+        String key = goalKey(z1, z2);
+
+        if (qFunction.containsGoal(key)) {
+            LOGGER.info("Already know: " + key);
+            return;
+        }
+
+        double[] weights = qFunction.addGoal(key);
+        Learner learner = new Learner(environment, qFunction.getTileCoder(), weights, random);
+        for (int episode = 0; episode < episodes; episode++) {
+            // intialize S with at most one write per actuator
+            environment.resetTo(environment.sampleStartState(random));
+            int steps = learner.runEpisode(alpha, gamma, epsilon, reward, z1, z2);
+            LOGGER.fine("Episode " + episode + " of " + key + " took " + steps + " steps");
+        }
+        writeQFunctionToFile(qFunction);
+    }
+
+    /**
+     * Returns information about the next best action based on the learned Q values of a
+     * goal description and on the current readings of the lab (see {@link QLearner#getActionFromState}).
+     *
+     * @param goalDescription           the desired goal against the which the Q values were learned (e.g., [2,3])
+     * @param currentStateDescription   the current state e.g. [2,2,true,false,true,true,2], which is read
+     *                                  again from the lab for its raw readings
+     * @param nextBestActionTag         the (returned) semantic annotation of the next best action, e.g. "http://example.org/was#SetZ1Light"
+     * @param nextBestActionPayloadTags the (returned) semantic annotations of the payload of the next best action, e.g. [Z1Light]
+     * @param nextBestActionPayload     the (returned) payload of the next best action, e.g. true
+     **/
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void getActionFromState(Object[] goalDescription,
+                                   Object[] currentStateDescription,
+                                   OpFeedbackParam<String> nextBestActionTag,
+                                   OpFeedbackParam<Object[]> nextBestActionPayloadTags,
+                                   OpFeedbackParam<Object[]> nextBestActionPayload) {
+        int z1 = Integer.parseInt(goalDescription[0].toString());
+        int z2 = Integer.parseInt(goalDescription[1].toString());
+
+        initializeQFunction();
+        double[] weights = qFunction.getWeights(goalKey(z1, z2));
+        if (weights == null) {
+            failed("No Q values have been learned for " + goalKey(z1, z2));
+            return;
+        }
+
+        if (lab.getReadings().size() != qFunction.getTileCoder().getDimensionCount()) {
+            failed("The readings of the lab do not match the tile coding of the Q values");
+            return;
+        }
+        int currentState = lab.readCurrentState();
+        if (currentState < 0) {
+            failed("The state of the lab cannot be read");
+            return;
+        }
+        Learner learner = new Learner(lab, qFunction.getTileCoder(), weights, random);
+        Action nextAction = lab.getAction(learner.getGreedyAction(currentState));
+
+        nextBestActionTag.set(nextAction.getActionTag());
+        nextBestActionPayloadTags.set(nextAction.getPayloadTags());
+        nextBestActionPayload.set(nextAction.getPayload());
+    }
+
+    /* Reads the weights from the file, unless they are known or have another tile coding */
+    private void initializeQFunction() {
+        if (qFunction != null) {
+            return;
+        }
+        TileCoder tileCoder = createTileCoder(environment.getReadings());
+        try {
+            if (Files.exists(Paths.get(FILENAME))) {
+                LinearQFunction stored = LinearQFunction.read(Paths.get(FILENAME));
+                if (hasTileCoding(stored.getTileCoder(), tileCoder)) {
+                    qFunction = stored;
+                    return;
+                }
+                LOGGER.warning("Ignoring the weights of another tile coding in " + FILENAME);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        qFunction = new LinearQFunction(tileCoder);
+    }
+
+    /* A tile coder with a dimension per reading, where boolean readings are discrete */
+    private TileCoder createTileCoder(List<Reading> readings) {
+        double[] tileWidths = new double[readings.size()];
+        for (int reading = 0; reading < readings.size(); reading++) {
+            tileWidths[reading] = readings.get(reading).isBoolean() ? 0 : tileWidth;
+        }
+        return new TileCoder(tilings, weightCount, tileWidths);
+    }
+
+    private static boolean hasTileCoding(TileCoder tileCoder, TileCoder other) {
+        if (tileCoder.getTilings() != other.getTilings()
+                || tileCoder.getWeightCount() != other.getWeightCount()
+                || tileCoder.getDimensionCount() != other.getDimensionCount()) {
+            return false;
+        }
+        for (int dimension = 0; dimension < tileCoder.getDimensionCount(); dimension++) {
+            if (tileCoder.getTileWidth(dimension) != other.getTileWidth(dimension)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeQFunctionToFile(LinearQFunction qFunction) {
+        try {
+            qFunction.write(Paths.get(FILENAME));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /* The key of the weights of a goal description, e.g. "[2,3]", as for the Q matrices of QLearner */
+    private static String goalKey(int z1, int z2) {
+        return String.format("[%d,%d]", z1, z2);
+    }
+
+    /**
+     * Learns the weights of a goal against an environment, with buffers that are allocated
+     * once, so that the steps of an episode do not allocate
+     */
+    static final class Learner {
+
+        private final LearningEnvironment env;
+        private final TileCoder tileCoder;
+        private final double[] weights;
+        private final Random random;
+        private final boolean[] logScale; // the dimensions whose readings are tiled on a logarithmic scale
+        private final double[] observation;
+        private final int[] features;
+        private final int[] nextFeatures;
+
+        Learner(LearningEnvironment env, TileCoder tileCoder, double[] weights, Random random) {
+            this.env = env;
+            this.tileCoder = tileCoder;
+            this.weights = weights;
+            this.random = random;
+            this.logScale = new boolean[tileCoder.getDimensionCount()];
+            for (int dimension = 0; dimension < logScale.length; dimension++) {
+                logScale[dimension] = tileCoder.getTileWidth(dimension) > 0;
+            }
+            this.observation = new double[tileCoder.getDimensionCount()];
+            this.features = new int[tileCoder.getTilings()];
+            this.nextFeatures = new int[tileCoder.getTilings()];
+        }
+
+        /**
+         * Runs an episode from the current state of the environment, until the goal is
+         * reached or for at most {@link #MAX_EPISODE_STEPS} steps
+         *
+         * @return the number of steps
+         */
+        int runEpisode(double alpha, double gamma, double epsilon, int reward, int z1, int z2) {
+            int state = env.readCurrentState();
+            readObservation();
+
+            for (int step = 0; step < MAX_EPISODE_STEPS; step++) {
+                int[] applicableActions = env.getApplicableActionArray(state);
+                int action = applicableActions[random.nextInt(applicableActions.length)];
+                if (random.nextDouble() > epsilon) {
+                    action = getGreedyAction(applicableActions);
+                }
+                tileCoder.encode(observation, action, features);
+                double qsa = LinearQFunction.value(weights, features);
+
+                env.performAction(action);
+                int newState = env.settle(state, action);
+                readObservation();
+                int calculatedReward = env.getStateCodec().getValue(newState, 0) == z1
+                        && env.getStateCodec().getValue(newState, 1) == z2 ? reward : 0;
+
+                double maxqsda = getMaxValue(env.getApplicableActionArray(newState));
+                LinearQFunction.update(weights, features, alpha * (calculatedReward + gamma * maxqsda - qsa));
+
+                state = newState;
+                if (calculatedReward == reward) {
+                    return step + 1;
+                }
+            }
+            return MAX_EPISODE_STEPS;
+        }
+
+        /**
+         * Returns the applicable action with the highest Q value in the current readings
+         * of the environment, or a random one if the Q values of all actions are zero
+         */
+        int getGreedyAction(int state) {
+            readObservation();
+            return getGreedyAction(env.getApplicableActionArray(state));
+        }
+
+        private int getGreedyAction(int[] applicableActions) {
+            int greedyAction = applicableActions[0];
+            double maxValue = value(greedyAction);
+            for (int i = 1; i < applicableActions.length; i++) {
+                double value = value(applicableActions[i]);
+                if (value > maxValue) {
+                    maxValue = value;
+                    greedyAction = applicableActions[i];
+                }
+            }
+            if (maxValue == 0.0) {
+                greedyAction = applicableActions[random.nextInt(applicableActions.length)];
+            }
+            return greedyAction;
+        }
+
+        private double getMaxValue(int[] applicableActions) {
+            double maxValue = 0.0;
+            for (int action : applicableActions) {
+                maxValue = Math.max(maxValue, value(action));
+            }
+            return maxValue;
+        }
+
+        private double value(int action) {
+            tileCoder.encode(observation, action, nextFeatures);
+            return LinearQFunction.value(weights, nextFeatures);
+        }
+
+        /* Reads the raw readings of the environment, and maps number readings to log(1 + value) */
+        private void readObservation() {
+            env.getObservation(observation);
+            for (int dimension = 0; dimension < observation.length; dimension++) {
+                if (logScale[dimension]) {
+                    observation[dimension] = Math.log1p(Math.max(0, observation[dimension]));
+                }
+            }
+        }
+    }
+}
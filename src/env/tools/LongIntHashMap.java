@@ -0,0 +1,131 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to non-negative int values on primitive arrays, e.g. from
+ * the states that have been visited to the rows that store their Q values.
+ *
+ * <p> The map uses open addressing with linear probing, so that looking up a key does
+ * not allocate and touches few cache lines. The table is kept at most half full, and
+ * doubles when it grows beyond. Keys cannot be removed.
+ * </p>
+ *
+ * <p> The map is not thread-safe.
+ * </p>
+ */
+public final class LongIntHashMap {
+
+    /**
+     * The value returned by {@link #get(long)} for keys that are not in the map
+     */
+    public static final int MISSING = -1;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * A {@link LongIntHashMap} instance is constructed based on the number of keys
+     * that it is expected to hold before it needs to grow
+     *
+     * @param expectedSize the expected number of keys
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of a key
+     *
+     * @param key the key
+     * @return the value, or {@link #MISSING} if the key is not in the map
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        while (true) {
+            long candidate = keys[slot];
+            if (candidate == key) {
+                return values[slot];
+            }
+            if (candidate == EMPTY) {
+                return MISSING;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Sets the value of a key
+     *
+     * @param key   the key, which cannot be {@link Long#MIN_VALUE}
+     * @param value the value, which cannot be negative
+     * @return the previous value, or {@link #MISSING} if the key was not in the map
+     */
+    public int put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Unsupported key: " + key);
+        }
+        if (value < 0) {
+            throw new IllegalArgumentException("The value cannot be negative: " + value);
+        }
+
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length / 2) {
+            grow();
+        }
+        return MISSING;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalStateException("The map cannot grow beyond " + size + " keys");
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /* Spreads the bits of the key, as consecutive states would otherwise fill consecutive slots */
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
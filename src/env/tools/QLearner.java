@@ -7,27 +7,103 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
 import java.util.logging.Logger;
 
 public class QLearner extends Artifact {
 
     private Lab lab; // the lab environment that will be learnt
+    private LearningEnvironment environment; // the environment against which the Q matrices are calculated
+    private LongFunction<LearningEnvironment> environmentFactory; // creates seeded environments for parallel training, if any
     private int stateCount; // the number of possible states in the lab environment
     private int actionCount; // the number of possible actions in the lab environment
-    //    private HashMap<Integer, double[][]> qTables; // a map for storing the qTables computed for different goals
-    private HashMap<String, double[][]> qTables; // a map for storing the qTables computed for different goals
+    private QTableStore qTables; // a store for the qTables computed for different goals
+    private QTableStore.Precision precision = QTableStore.Precision.DOUBLE; // the precision of the stored Q values
+    private QTableStore.Layout layout = QTableStore.Layout.DENSE; // the layout of the stored Q matrices, sparse for large state spaces
+    private double maxMagnitude; // the range of fixed-point Q values
+    private ReplayBuffer replayBuffer; // the observed transitions, which are replayed for further Q updates
+    private int replayUpdates; // the number of replayed Q updates per performed action
+    private TransitionModel transitionModel; // the observed dynamics of the environment, used for planning
+    private int planningSteps; // the number of simulated Q updates against the transition model per performed action
+    private int convergenceWindow; // the number of episodes over which convergence is decided, 0 if training runs all episodes
+    private double convergenceTolerance; // the largest change of a Q value at which a Q matrix is considered converged
+    private int maxEpisodes; // the number of episodes up to which a training that has not converged is extended
+    private TrainingCheckpoint checkpoint; // the progress of the training of each goal, from which the training can be resumed
+    private long checkpointMillis = CHECKPOINT_MILLIS; // the interval of the checkpoints that are written during training
+    private ScheduledExecutorService checkpointWriter; // writes the checkpoints while a training operation runs
+    private final ReadWriteLock episodeLock = new ReentrantReadWriteLock(true); // held by the workers for each episode, and by the checkpoints for a snapshot between episodes
+    private final QLearnerStats stats = new QLearnerStats(); // the training progress, exposed through JMX and as observable property
+    private ObjectName statsName; // the JMX name of the training progress, if registered
+    private long statsPublishedNanos; // the time when the observable property of the training progress was last updated
     private final Random random = new Random();
     private static final int ITERATIONS = 10;
-    private static final String FILENAME = "qtables.json";
+    private static final int STEP_MILLIS = 50; // the tick of the simulated lab
+    private static final int MAX_EPISODE_STEPS = 1000; // ends episodes whose goal cannot be reached, e.g. [0,3]
+    private static final String FILENAME = "qtables.bin";
+    private static final String CORRUPT_FILENAME = FILENAME + ".corrupt";
+    private static final String JSON_FILENAME = "qtables.json";
+    private static final String REPLAY_FILENAME = "replay.bin";
+    private static final String MODEL_FILENAME = "model.bin";
+    private static final String CHECKPOINT_FILENAME = "checkpoint.bin";
+    private static final long CHECKPOINT_MILLIS = 30_000;
+    private static final int REPLAY_CAPACITY = 100_000;
+    private static final long MAX_DENSE_VALUES = 1 << 20; // the largest Q matrix that is stored densely by default
+    private static final double SOLVER_TOLERANCE = 1e-6; // the largest change of a Q value at which value iteration stops
+    private static final int SOLVER_MAX_ITERATIONS = 1000;
+    private static final long STATS_PUBLISH_MILLIS = 1000; // the interval of the updates of the observable property of the training progress
     private static final Logger LOGGER = Logger.getLogger(QLearner.class.getName());
 
     @SuppressWarnings("unused")
     public void init(String environmentURL) {
+        initialize(environmentURL);
+        shuffle();
+    }
+
+    /**
+     * Initializes the artifact against the lab Thing described by the W3C Thing Description
+     * at the given URL. If simulated is true, the Q matrices are calculated against an
+     * in-process {@link SimulatedLab}, which updates once per training step, and the lab
+     * Thing is only used for acting, so it is not shuffled either.
+     *
+     * @param environmentURL the URL of the W3C Thing Description of the lab Thing
+     * @param simulated      whether the Q matrices are calculated against a simulated lab
+     */
+    @SuppressWarnings("unused")
+    public void init(String environmentURL, boolean simulated) {
+        initialize(environmentURL);
+
+        if (simulated) {
+            if (!SimulatedLab.hasStateAxes(lab.getStateAxes())) {
+                throw new IllegalArgumentException("The simulated lab cannot simulate the state axes "
+                        + lab.getStateAxes() + " of the lab");
+            }
+            this.environmentFactory = seed -> new SimulatedLab(seed, STEP_MILLIS);
+            this.environment = environmentFactory.apply(random.nextLong());
+            LOGGER.info("Calculating Q matrices against a simulated lab");
+        } else {
+            shuffle();
+        }
+    }
+
+    private void initialize(String environmentURL) {
         // the URL of the W3C Thing Description of the lab Thing
         this.lab = new Lab(environmentURL);
 
@@ -37,15 +113,24 @@ public class QLearner extends Artifact {
         this.actionCount = lab.getActionCount();
         LOGGER.info("Initialized with an action space of m=" + actionCount);
 
-        shuffle();
+        if ((long) stateCount * actionCount > MAX_DENSE_VALUES) {
+            this.layout = QTableStore.Layout.SPARSE;
+            LOGGER.info("Storing the Q values of the visited states only");
+        }
+
+        this.environment = lab;
+
+        // training_stats(EpisodesPerSecond, StepsPerSecond, AverageEpisodeLength, LastEpisodeMaxDeltaQ, EnvironmentShare)
+        defineObsProperty("training_stats", 0.0, 0.0, 0.0, 0.0, 0.0);
+        registerStats();
     }
 
     private void shuffle() {
         int currentState = lab.readCurrentState();
 
         for (int i = 0; i < ITERATIONS; i++) {
-            List<Integer> possibleActions = lab.getApplicableActions(currentState);
-            int randomAction = possibleActions.get(random.nextInt(possibleActions.size()));
+            int[] possibleActions = lab.getApplicableActionArray(currentState);
+            int randomAction = possibleActions[random.nextInt(possibleActions.length)];
             lab.performAction(randomAction);
         }
 
@@ -99,47 +184,431 @@ public class QLearner extends Artifact {
         Integer z2 = Integer.valueOf(goalDescription[1].toString());
 
         qTables = readOrInitializeQTablesFromFile();
+        replayBuffer = readOrInitializeReplayBufferFromFile();
+        initializeTransitionModel();
+        checkpoint = readOrInitializeCheckpointFromFile();
 
-        String newKey = String.format("[%d,%d]", z1, z2);
+        String newKey = goalKey(z1, z2);
 
-        if (qTables.containsKey(newKey)) {
-            LOGGER.info("Already know: " + newKey);
+        if (qTables.containsGoal(newKey)) {
+            LOGGER.info("Already know: " + newKey + " (resumeQ continues its training)");
         } else {
-            qTables.put(newKey, initializeQTable());
-            double[][] singleQTable = qTables.get(newKey);
-            int currentState = lab.readCurrentState();
-            for (int i = 0; i < params.getEpisodes(); i++) {
-                LOGGER.info("It's the next episode - Dr. Dre");
-                // intialize S
-                initS(currentState);
-                currentState = performActions(params, z1, z2, singleQTable, currentState);
-                LOGGER.info("State after actions: " + currentState);
+            int goal = qTables.addGoal(newKey);
+            TrainingCheckpoint.Progress progress = checkpoint.restart(newKey, random);
+            startTraining();
+            try {
+                train(environment, params, z1, z2, goal, progress, this::publishStatsPeriodically);
+            } finally {
+                endTraining();
             }
-            LOGGER.info("Tune in next time for the chronic");
         }
-        writeQTablesToFile(qTables);
+        writeCheckpoint();
+    }
+
+    /**
+     * Continues the training of the Q matrix of a goal description from its last checkpoint,
+     * e.g. after the artifact was restarted during a long training against the lab Thing,
+     * or to improve a Q matrix that has been trained for too few episodes. While a Q matrix
+     * is trained, the Q matrices, the observed transitions and the progress of the training
+     * are written every 30 seconds (see {@link #setCheckpointInterval}), and a resumed
+     * training continues with the episode and the random number generator of the last checkpoint.
+     * A goal description that is not known yet is trained from scratch.
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+     * @param episodesObj     the total number of episodes that the Q matrix is trained for,
+     *                        including the episodes before the checkpoint
+     * @param alphaObj        the learning rate with range [0,1].
+     * @param gammaObj        the discount factor [0,1]
+     * @param epsilonObj      the exploration probability [0,1]
+     * @param rewardObj       the reward assigned when reaching the goal state
+     **/
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void resumeQ(Object[] goalDescription,
+                        Object episodesObj,
+                        Object alphaObj,
+                        Object gammaObj,
+                        Object epsilonObj,
+                        Object rewardObj) {
+
+        // ensure that the right datatypes are used
+        int episodes = Integer.parseInt(episodesObj.toString());
+        double alpha = Double.parseDouble(alphaObj.toString());
+        double gamma = Double.parseDouble(gammaObj.toString());
+        double epsilon = Double.parseDouble(epsilonObj.toString());
+        int reward = Integer.parseInt(rewardObj.toString());
+
+        HyperParams params = HyperParams.create(alpha, gamma, epsilon, reward, episodes);
+
+        int z1 = Integer.parseInt(goalDescription[0].toString());
+        int z2 = Integer.parseInt(goalDescription[1].toString());
+
+        qTables = readOrInitializeQTablesFromFile();
+        replayBuffer = readOrInitializeReplayBufferFromFile();
+        initializeTransitionModel();
+        checkpoint = readOrInitializeCheckpointFromFile();
+
+        String key = goalKey(z1, z2);
+        TrainingCheckpoint.Progress progress;
+        if (!qTables.containsGoal(key)) {
+            LOGGER.info("No Q matrix of " + key + " yet, training it from scratch");
+            progress = checkpoint.restart(key, random);
+        } else if (!checkpoint.containsGoal(key)) {
+            LOGGER.info("No checkpoint of " + key + ", training the known Q matrix for " + episodes + " more episodes");
+            progress = checkpoint.restart(key, random);
+        } else {
+            progress = checkpoint.resume(key, random);
+            LOGGER.info("Resuming " + key + " after " + progress.getEpisodes() + " episodes");
+        }
+
+        int goal = qTables.addGoal(key);
+        startTraining();
+        try {
+            train(environment, params, z1, z2, goal, progress, this::publishStatsPeriodically);
+        } finally {
+            endTraining();
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * Computes the Q matrices for several goal descriptions at once. Against a simulated lab,
+     * every goal description is trained by a worker of a fixed thread pool with its own
+     * {@link SimulatedLab} and its own seeded random number generator, so that the training
+     * time scales with the number of available cores. Against the lab Thing, the goal
+     * descriptions are trained one after the other, as they share the same device.
+     *
+     * @param goalDescriptions the desired goals against which the Q matrices are calculated (e.g., [[2,3],[1,1]])
+     * @param episodesObj      the number of episodes used for calculating each Q matrix
+     * @param alphaObj         the learning rate with range [0,1].
+     * @param gammaObj         the discount factor [0,1]
+     * @param epsilonObj       the exploration probability [0,1]
+     * @param rewardObj        the reward assigned when reaching the goal state
+     **/
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void calculateQs(Object[] goalDescriptions,
+                            Object episodesObj,
+                            Object alphaObj,
+                            Object gammaObj,
+                            Object epsilonObj,
+                            Object rewardObj) {
+
+        // ensure that the right datatypes are used
+        int episodes = Integer.parseInt(episodesObj.toString());
+        double alpha = Double.parseDouble(alphaObj.toString());
+        double gamma = Double.parseDouble(gammaObj.toString());
+        double epsilon = Double.parseDouble(epsilonObj.toString());
+        int reward = Integer.parseInt(rewardObj.toString());
+
+        HyperParams params = HyperParams.create(alpha, gamma, epsilon, reward, episodes);
+
+        qTables = readOrInitializeQTablesFromFile();
+        replayBuffer = readOrInitializeReplayBufferFromFile();
+        initializeTransitionModel();
+        checkpoint = readOrInitializeCheckpointFromFile();
+
+        // all goals are added on the calling thread before any worker starts, as adding a goal
+        // grows the Q values; the workers then only update the disjoint Q values of their own
+        // goal. The seeds are drawn on the calling thread, so that a run can be reproduced
+        List<int[]> newGoals = new ArrayList<>();
+        List<TrainingCheckpoint.Progress> progresses = new ArrayList<>();
+        List<Long> seeds = new ArrayList<>();
+        for (Object goalDescriptionObj : goalDescriptions) {
+            Object[] goalDescription = (Object[]) goalDescriptionObj;
+            int z1 = Integer.parseInt(goalDescription[0].toString());
+            int z2 = Integer.parseInt(goalDescription[1].toString());
+
+            String newKey = goalKey(z1, z2);
+
+            if (qTables.containsGoal(newKey)) {
+                LOGGER.info("Already know: " + newKey + " (resumeQ continues its training)");
+                continue;
+            }
+
+            long seed = random.nextLong();
+            newGoals.add(new int[]{z1, z2, qTables.addGoal(newKey)});
+            progresses.add(checkpoint.restart(newKey, new Random(seed)));
+            seeds.add(seed);
+        }
+
+        List<Future<?>> results = new ArrayList<>();
+        startTraining();
+        int poolSize = environmentFactory == null ? 1 : Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(poolSize, goalDescriptions.length)));
+
+        try {
+            for (int i = 0; i < newGoals.size(); i++) {
+                int[] newGoal = newGoals.get(i);
+                TrainingCheckpoint.Progress progress = progresses.get(i);
+                long seed = seeds.get(i);
+                results.add(pool.submit(() -> {
+                    LearningEnvironment workerEnvironment = environmentFactory == null
+                            ? environment
+                            : environmentFactory.apply(seed);
+                    train(workerEnvironment, params, newGoal[0], newGoal[1], newGoal[2], progress, () -> {
+                    });
+                }));
+            }
+
+            // the workers cannot update observable properties, so the progress is published while waiting
+            for (Future<?> result : results) {
+                while (true) {
+                    try {
+                        result.get(STATS_PUBLISH_MILLIS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        publishStats();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed("Interrupted while calculating the Q matrices");
+        } catch (ExecutionException e) {
+            failed("Could not calculate the Q matrices: " + e.getCause());
+        } finally {
+            pool.shutdownNow();
+            endTraining();
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * Computes the Q matrices for all goal descriptions [z1Level, z2Level] that are not
+     * known yet, from a single exploration run. Every observed transition is evidence for
+     * all goals, as only the reward depends on the goal, so each transition updates the Q
+     * matrices of all goals at once. The episodes take turns in acting epsilon-greedily
+     * towards one of the goals, and end when that goal is reached.
+     *
+     * @param episodesObj the number of episodes of the exploration run (in total, not per goal)
+     * @param alphaObj    the learning rate with range [0,1].
+     * @param gammaObj    the discount factor [0,1]
+     * @param epsilonObj  the exploration probability [0,1]
+     * @param rewardObj   the reward assigned when reaching the goal state
+     **/
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void calculateAllQs(Object episodesObj,
+                               Object alphaObj,
+                               Object gammaObj,
+                               Object epsilonObj,
+                               Object rewardObj) {
+
+        // ensure that the right datatypes are used
+        int episodes = Integer.parseInt(episodesObj.toString());
+        double alpha = Double.parseDouble(alphaObj.toString());
+        double gamma = Double.parseDouble(gammaObj.toString());
+        double epsilon = Double.parseDouble(epsilonObj.toString());
+        int reward = Integer.parseInt(rewardObj.toString());
+
+        HyperParams params = HyperParams.create(alpha, gamma, epsilon, reward, episodes);
+
+        qTables = readOrInitializeQTablesFromFile();
+        initializeTransitionModel();
+        checkpoint = readOrInitializeCheckpointFromFile();
+
+        StateCodec codec = environment.getStateCodec();
+        int goalCount = codec.getRadix(0) * codec.getRadix(1);
+        int[] goals = new int[goalCount];
+        int[] goalCodes = new int[goalCount];
+        int unknownGoals = 0;
+        for (int z1 = 0; z1 < codec.getRadix(0); z1++) {
+            for (int z2 = 0; z2 < codec.getRadix(1); z2++) {
+                String newKey = goalKey(z1, z2);
+                if (qTables.containsGoal(newKey)) {
+                    LOGGER.info("Already know: " + newKey);
+                    continue;
+                }
+                // the exploration run trains all goals at once, so it cannot be resumed per goal
+                checkpoint.remove(newKey);
+                goals[unknownGoals] = qTables.addGoal(newKey);
+                goalCodes[unknownGoals] = goalCode(environment, z1, z2);
+                unknownGoals++;
+            }
+        }
+
+        if (unknownGoals > 0) {
+            startTraining();
+            try {
+                trainAll(environment, random, params, Arrays.copyOf(goals, unknownGoals),
+                        Arrays.copyOf(goalCodes, unknownGoals));
+            } finally {
+                endTraining();
+            }
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * Calculates the Q matrices of several goal slots at once against the given environment,
+     * where each episode acts towards the goal slots in turn
+     */
+    private void trainAll(LearningEnvironment env,
+                          Random random,
+                          HyperParams params,
+                          int[] goals,
+                          int[] goalCodes) {
+        ConvergenceMonitor monitor = createConvergenceMonitor(env, goals);
+        int episodeBudget = getEpisodeBudget(params, monitor);
+        for (int i = 0; i < episodeBudget; i++) {
+            int behaviorGoal = i % goals.length;
+            QLearnerStats.Episode episode = stats.startEpisode();
+            int currentState;
+            episodeLock.readLock().lock();
+            try {
+                long started = System.nanoTime();
+                currentState = env.resetTo(env.sampleStartState(random));
+                episode.environment(System.nanoTime() - started);
+
+                for (int step = 0; step < MAX_EPISODE_STEPS; step++) {
+                    int[] possibleActions = env.getApplicableActionArray(currentState);
+                    int row = qTables.findRowOffset(goals[behaviorGoal], currentState);
+                    int chosenAction = possibleActions[random.nextInt(possibleActions.length)];
+                    if (random.nextDouble() > params.getEpsilon()) {
+                        chosenAction = getMaxValueIndex(random, qTables, row, possibleActions);
+                    }
+                    started = System.nanoTime();
+                    env.performAction(chosenAction);
+                    int newState = env.settle(currentState, chosenAction);
+                    episode.environment(System.nanoTime() - started);
+                    episode.step();
+                    transitionModel.record(currentState, chosenAction, newState);
+
+                    int reachedGoal = updateAllQ(env, params, goals, goalCodes, currentState, chosenAction, newState, episode);
+                    currentState = newState;
+                    if (reachedGoal == goalCodes[behaviorGoal]) {
+                        break;
+                    }
+                }
+            } finally {
+                episodeLock.readLock().unlock();
+            }
+            stats.endEpisode(episode);
+            publishStatsPeriodically();
+            LOGGER.info("State after actions: " + currentState);
+            if (hasConverged(monitor, episode, i, params)) {
+                break;
+            }
+        }
+    }
+
+    /*
+     * The Q-learning updates of a transition for several goal slots, which only differ in the
+     * reward; returns the goal code of the light levels of the new state
+     */
+    private int updateAllQ(LearningEnvironment env, HyperParams params, int[] goals, int[] goalCodes,
+                           int state, int action, int newState, QLearnerStats.Episode episode) {
+        StateCodec codec = env.getStateCodec();
+        int reachedGoal = goalCode(env, codec.getValue(newState, 0), codec.getValue(newState, 1));
+        int[] possibleActions = env.getApplicableActionArray(newState);
+
+        for (int i = 0; i < goals.length; i++) {
+            int reward = goalCodes[i] == reachedGoal ? params.getReward() : 0;
+            int newRow = qTables.findRowOffset(goals[i], newState);
+            double maxqsda = 0.0;
+            if (newRow >= 0) {
+                for (int possibleAction : possibleActions) {
+                    maxqsda = Math.max(maxqsda, qTables.get(newRow + possibleAction));
+                }
+            }
+            int row = qTables.findRowOffset(goals[i], state);
+            double currentQsa = row < 0 ? 0.0 : qTables.get(row + action);
+            double deltaQ = params.getAlpha() * ((reward + params.getGamma() * maxqsda) - currentQsa);
+            // in the sparse layout, a row is only allocated once one of its Q values differs from 0
+            if (row >= 0 || deltaQ != 0) {
+                qTables.set((row < 0 ? qTables.rowOffset(goals[i], state) : row) + action, currentQsa + deltaQ);
+            }
+            episode.update(deltaQ);
+        }
+        return reachedGoal;
     }
 
-    private int performActions(HyperParams params,
+    /**
+     * Calculates the Q matrix of a goal slot of the Q table store against the given environment,
+     * from the episode and with the random number generator of the progress of its training,
+     * and runs afterEpisode after each episode
+     */
+    private void train(LearningEnvironment env,
+                       HyperParams params,
+                       int z1,
+                       int z2,
+                       int goal,
+                       TrainingCheckpoint.Progress progress,
+                       Runnable afterEpisode) {
+        Random random = progress.getRandom();
+        ConvergenceMonitor monitor = createConvergenceMonitor(env, goal);
+        int episodeBudget = getEpisodeBudget(params, monitor);
+        for (int i = progress.getEpisodes(); i < episodeBudget; i++) {
+            LOGGER.info("It's the next episode - Dr. Dre");
+            QLearnerStats.Episode episode = stats.startEpisode();
+            int currentState;
+            episodeLock.readLock().lock();
+            try {
+                long started = System.nanoTime();
+                // intialize S with at most one write per actuator
+                currentState = env.resetTo(env.sampleStartState(random));
+                episode.environment(System.nanoTime() - started);
+                currentState = performActions(env, random, params, z1, z2, goal, currentState, episode);
+                progress.endEpisode();
+            } finally {
+                episodeLock.readLock().unlock();
+            }
+            stats.endEpisode(episode);
+            afterEpisode.run();
+            LOGGER.info("State after actions: " + currentState);
+            if (hasConverged(monitor, episode, i, params)) {
+                break;
+            }
+        }
+        LOGGER.info("Tune in next time for the chronic");
+    }
+
+    private int performActions(LearningEnvironment env,
+                               Random random,
+                               HyperParams params,
                                Integer z1,
                                Integer z2,
-                               double[][] singleQTable,
-                               int currentState) {
-        while (true) {
-            List<Integer> possibleActions = lab.getApplicableActions(currentState);
+                               int goal,
+                               int currentState,
+                               QLearnerStats.Episode episode) {
+        int goalCode = goalCode(env, z1, z2);
+        int[] transition = new int[4];
+        int[] simulatedTransition = new int[3];
+
+        for (int step = 0; step < MAX_EPISODE_STEPS; step++) {
+            int[] possibleActions = env.getApplicableActionArray(currentState);
+            int row = qTables.findRowOffset(goal, currentState);
             double randomNumber = random.nextDouble();
-            int chosenAction = possibleActions.get(random.nextInt(possibleActions.size()));
+            int chosenAction = possibleActions[random.nextInt(possibleActions.length)];
             if (randomNumber > params.getEpsilon()) {
-                chosenAction = getMaxValueIndex(singleQTable[currentState], lab.getApplicableActions(currentState));
+                chosenAction = getMaxValueIndex(random, qTables, row, possibleActions);
+            }
+            long started = System.nanoTime();
+            env.performAction(chosenAction);
+            int newState = env.settle(currentState, chosenAction);
+            episode.environment(System.nanoTime() - started);
+            episode.step();
+            int calculatedReward = checkReward(env, params.getReward(), z1, z2);
+            episode.update(updateQ(qTables, env, params, goal, currentState, chosenAction, calculatedReward, newState));
+
+            // the transition cost a real interaction, so it is reused for further updates
+            replayBuffer.add(currentState, chosenAction, calculatedReward, newState, goalCode);
+            for (int replay = 0; replay < replayUpdates; replay++) {
+                if (replayBuffer.sample(random, goalCode, transition)) {
+                    episode.update(updateQ(qTables, env, params, goal, transition[0], transition[1], transition[2], transition[3]));
+                }
+            }
+
+            // Dyna: backups of transitions simulated by the model of the environment
+            transitionModel.record(currentState, chosenAction, newState);
+            for (int planning = 0; planning < planningSteps; planning++) {
+                if (transitionModel.sample(random, simulatedTransition)) {
+                    int simulatedState = simulatedTransition[2];
+                    episode.update(updateQ(qTables, env, params, goal, simulatedTransition[0], simulatedTransition[1],
+                            getReward(env, params.getReward(), z1, z2, simulatedState), simulatedState));
+                }
             }
-            lab.performAction(chosenAction);
-            sleep(50);
-            int newState = lab.readCurrentState();
-            double maxqsda = getMaxQSA(newState, singleQTable);
-            double currentQsa = singleQTable[currentState][chosenAction];
-            int calculatedReward = checkReward(params.getReward(), z1, z2);
-            double newValue = currentQsa + params.getAlpha() * ((calculatedReward + params.getGamma() * maxqsda) - currentQsa);
-            singleQTable[currentState][chosenAction] = newValue;
             currentState = newState;
             if (calculatedReward == params.getReward()) {
                 break;
@@ -148,21 +617,196 @@ public class QLearner extends Artifact {
         return currentState;
     }
 
-    private void initS(int currentState) {
-        for (int j = 0; j < 1000; j++) {
-            List<Integer> possibleActions = lab.getApplicableActions(currentState);
-            int randomAction = possibleActions.get(random.nextInt(possibleActions.size()));
-            lab.performAction(randomAction);
-            sleep(3);
+    /* A monitor of the convergence of the Q matrices of the goal slots, or null if training runs all episodes */
+    private ConvergenceMonitor createConvergenceMonitor(LearningEnvironment env, int... goals) {
+        if (convergenceWindow == 0) {
+            return null;
         }
+        return new ConvergenceMonitor(convergenceWindow, convergenceTolerance, qTables, env, goals);
     }
 
-    private static void sleep(int millis) {
+    /* The number of episodes that a training may run, which is extended while the Q matrices have not converged */
+    private int getEpisodeBudget(HyperParams params, ConvergenceMonitor monitor) {
+        return monitor == null ? params.getEpisodes() : Math.max(params.getEpisodes(), maxEpisodes);
+    }
+
+    /* Records the episode with the given index, and decides whether the training has converged */
+    private static boolean hasConverged(ConvergenceMonitor monitor, QLearnerStats.Episode episode, int index,
+                                        HyperParams params) {
+        if (monitor == null || !monitor.endEpisode(episode.getMaxDeltaQ())) {
+            if (monitor != null && index + 1 == params.getEpisodes()) {
+                LOGGER.info("Not converged after " + (index + 1) + " episodes, "
+                        + monitor.getLastPolicyChanges() + " greedy actions changed in the last one");
+            }
+            return false;
+        }
+        LOGGER.info("Converged after " + (index + 1) + " episodes, the largest recent change of a Q value is "
+                + monitor.getWindowMaxDeltaQ());
+        return true;
+    }
+
+    /* The Q-learning update of the Q value of a state and an action of a goal slot; returns the change of the Q value */
+    static double updateQ(QTableStore qTables, LearningEnvironment env, HyperParams params, int goal,
+                          int state, int action, int reward, int newState) {
+        int row = qTables.findRowOffset(goal, state);
+        double maxqsda = getMaxQSA(qTables, env, goal, newState);
+        double currentQsa = row < 0 ? 0.0 : qTables.get(row + action);
+        double newValue = currentQsa + params.getAlpha() * ((reward + params.getGamma() * maxqsda) - currentQsa);
+        // in the sparse layout, a row is only allocated once one of its Q values differs from 0
+        if (row >= 0 || newValue != currentQsa) {
+            qTables.set((row < 0 ? qTables.rowOffset(goal, state) : row) + action, newValue);
+        }
+        return newValue - currentQsa;
+    }
+
+    /**
+     * Computes the Q matrix for a goal description by value iteration over the model of
+     * the environment, which has been learned from the actions that were performed by
+     * {@link #calculateQ} or {@link #calculateQs}. Unlike these operations, no action is
+     * performed, and a known Q matrix of the goal description is replaced. The operation
+     * fails if the Q matrices are stored in the sparse layout (see {@link #setQLayout}).
+     *
+     * @param goalDescription the desired goal against the which the Q matrix is calculated (e.g., [2,3])
+     * @param gammaObj        the discount factor [0,1)
+     * @param rewardObj       the reward assigned when reaching the goal state
+     **/
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void solveQ(Object[] goalDescription, Object gammaObj, Object rewardObj) {
+        double gamma = Double.parseDouble(gammaObj.toString());
+        int reward = Integer.parseInt(rewardObj.toString());
+        int z1 = Integer.parseInt(goalDescription[0].toString());
+        int z2 = Integer.parseInt(goalDescription[1].toString());
+
+        if (gamma < 0 || gamma >= 1) {
+            failed("The discount factor must be in [0,1): " + gamma);
+            return;
+        }
+        if (layout == QTableStore.Layout.SPARSE) {
+            // value iteration computes the Q values of all states, which only fit into a dense layout
+            failed("Value iteration needs the dense layout of the Q matrices, the state space is too large");
+            return;
+        }
+        initializeTransitionModel();
+        if (transitionModel.getObservedCount() == 0) {
+            failed("No transitions have been observed yet, e.g. by calculateQ");
+            return;
+        }
+
+        if (qTables == null) {
+            qTables = readOrInitializeQTablesFromFile();
+        }
+        if (checkpoint == null) {
+            checkpoint = readOrInitializeCheckpointFromFile();
+        }
+        ValueIterationSolver solver;
         try {
-            Thread.sleep(millis);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            solver = new ValueIterationSolver(environment, transitionModel, stateCount, actionCount);
+        } catch (IllegalArgumentException e) {
+            failed(e.getMessage());
+            return;
+        }
+        double[][] qTable = solver.solve(z1, z2, reward, gamma, SOLVER_TOLERANCE, SOLVER_MAX_ITERATIONS);
+        qTables.putTable(goalKey(z1, z2), qTable);
+        writeQTablesToFile(qTables);
+        // the Q matrix does not result from the episodes of a training anymore
+        checkpoint.remove(goalKey(z1, z2));
+        writeCheckpointToFile(checkpoint);
+    }
+
+    /**
+     * Sets the number of Q updates that are planned against a model of the environment
+     * after each performed action (Dyna-Q). The model counts the observed outcomes of the
+     * actions in each state, and is shared by the goals that are trained by the artifact.
+     *
+     * @param planningStepsObj the number of planned updates per performed action (0 by default)
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setPlanningSteps(Object planningStepsObj) {
+        int steps = Integer.parseInt(planningStepsObj.toString());
+        if (steps < 0) {
+            failed("The number of planning steps cannot be negative: " + steps);
+            return;
+        }
+        this.planningSteps = steps;
+    }
+
+    /**
+     * Lets the training of a Q matrix end as soon as it has converged, instead of after the
+     * given number of episodes. A Q matrix has converged when, over a window of consecutive
+     * episodes, no Q value changes by the tolerance or more and the greedy action of no state
+     * changes. A training that has not converged after the given number of episodes goes on
+     * until it converges, or until maxEpisodes episodes have been run.
+     *
+     * @param windowObj      the number of consecutive episodes over which the criterion must hold,
+     *                       or 0 to always run the given number of episodes (default)
+     * @param toleranceObj   the change of a Q value below which the Q value is considered converged,
+     *                       e.g. 1% of the reward
+     * @param maxEpisodesObj the number of episodes up to which a training that has not converged
+     *                       is extended
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setConvergence(Object windowObj, Object toleranceObj, Object maxEpisodesObj) {
+        int window = Integer.parseInt(windowObj.toString());
+        double tolerance = Double.parseDouble(toleranceObj.toString());
+        int episodes = Integer.parseInt(maxEpisodesObj.toString());
+        if (window < 0) {
+            failed("The convergence window cannot be negative: " + window);
+            return;
+        }
+        if (tolerance <= 0) {
+            failed("The convergence tolerance must be positive: " + tolerance);
+            return;
+        }
+        if (episodes < 1) {
+            failed("The maximum number of episodes must be positive: " + episodes);
+            return;
+        }
+        if (episodes < window) {
+            failed("The maximum number of episodes cannot be below the convergence window: " + episodes);
+            return;
+        }
+        this.convergenceWindow = window;
+        this.convergenceTolerance = tolerance;
+        this.maxEpisodes = episodes;
+    }
+
+    /**
+     * Sets the number of Q updates that replay transitions observed earlier (against the
+     * same goal) after each performed action, e.g. to make more of every interaction with
+     * the lab Thing. The observed transitions are kept in replay.bin across runs.
+     *
+     * @param replayUpdatesObj the number of replayed updates per performed action (0 by default)
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setExperienceReplay(Object replayUpdatesObj) {
+        int updates = Integer.parseInt(replayUpdatesObj.toString());
+        if (updates < 0) {
+            failed("The number of replayed updates cannot be negative: " + updates);
+            return;
+        }
+        this.replayUpdates = updates;
+    }
+
+    /**
+     * Sets the interval at which the Q matrices, the observed transitions and the progress
+     * of the training are written while a training operation runs, so that a training that
+     * is interrupted can be continued by {@link #resumeQ}
+     *
+     * @param secondsObj the interval in seconds (30 by default)
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setCheckpointInterval(Object secondsObj) {
+        double seconds = Double.parseDouble(secondsObj.toString());
+        if (seconds <= 0) {
+            failed("The checkpoint interval must be positive: " + seconds);
+            return;
         }
+        this.checkpointMillis = Math.max(1, Math.round(seconds * 1000));
     }
 
     @OPERATION
@@ -178,43 +822,324 @@ public class QLearner extends Artifact {
     @OPERATION
     @SuppressWarnings("unused")
     public void getCurrentLabState(OpFeedbackParam<Object[]> currentStateTag) {
-        Object[] t = {
-                lab.getCurrentState().get(0),
-                lab.getCurrentState().get(1),
-                lab.getCurrentState().get(2).equals(1),
-                lab.getCurrentState().get(3).equals(1),
-                lab.getCurrentState().get(4).equals(1),
-                lab.getCurrentState().get(5).equals(1),
-                lab.getCurrentState().get(6)
-        };
+        // e.g. [2,2,true,false,true,true,2], with a value per state axis of the lab
+        Object[] t = lab.describeState(lab.getStateCodec().encode(lab.getCurrentState())).toArray();
         currentStateTag.set(t);
     }
 
-    private static void writeQTablesToFile(HashMap<String, double[][]> qTables) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        String json = gson.toJson(qTables);
-        try (FileWriter writer = new FileWriter(FILENAME)) {
-            writer.write(json);
+    /**
+     * Exports the known Q matrices as pretty-printed JSON, in the format of the former
+     * qtables.json file
+     *
+     * @param path the location of the JSON file
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void exportQTables(String path) {
+        if (qTables == null) {
+            qTables = readOrInitializeQTablesFromFile();
+        }
+        try {
+            writeQTablesToJson(qTables.toTables(), path);
+        } catch (IOException e) {
+            failed("Could not export the Q tables: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets the precision with which Q values are stored: "double" (default), "float",
+     * or "fixed16" for 16-bit fixed-point values. Known Q values are converted.
+     *
+     * @param precisionObj    the precision
+     * @param maxMagnitudeObj the largest absolute Q value that can be stored with "fixed16",
+     *                        e.g. reward / (1 - gamma)
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setQPrecision(Object precisionObj, Object maxMagnitudeObj) {
+        try {
+            this.precision = QTableStore.Precision.valueOf(precisionObj.toString().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            failed("Unknown precision: " + precisionObj);
+            return;
+        }
+        this.maxMagnitude = Double.parseDouble(maxMagnitudeObj.toString());
+
+        if (qTables != null) {
+            qTables = qTables.withPrecision(precision, maxMagnitude);
+        }
+    }
+
+    /**
+     * Sets the precision with which Q values are stored: "double" (default) or "float"
+     *
+     * @param precisionObj the precision
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setQPrecision(Object precisionObj) {
+        setQPrecision(precisionObj, maxMagnitude);
+    }
+
+    /**
+     * Sets the layout with which Q matrices are stored: "dense" for a row per state, or
+     * "sparse" for a row per visited state. By default, Q matrices of more than 2^20 Q
+     * values are sparse. Known Q values are converted.
+     *
+     * @param layoutObj the layout
+     */
+    @OPERATION
+    @SuppressWarnings("unused")
+    public void setQLayout(Object layoutObj) {
+        try {
+            this.layout = QTableStore.Layout.valueOf(layoutObj.toString().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            failed("Unknown layout: " + layoutObj);
+            return;
+        }
+
+        if (qTables != null) {
+            try {
+                qTables = qTables.withLayout(layout);
+            } catch (IllegalArgumentException e) {
+                failed(e.getMessage());
+            }
+        }
+    }
+
+    private static void writeQTablesToFile(QTableStore qTables) {
+        try {
+            QTableFile.write(Paths.get(FILENAME), qTables);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeReplayBufferToFile(ReplayBuffer replayBuffer) {
+        try {
+            replayBuffer.write(Paths.get(REPLAY_FILENAME));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeTransitionModelToFile(TransitionModel transitionModel) {
+        try {
+            transitionModel.write(Paths.get(MODEL_FILENAME));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeCheckpointToFile(TrainingCheckpoint checkpoint) {
+        try {
+            checkpoint.write(Paths.get(CHECKPOINT_FILENAME));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static HashMap<String, double[][]> readOrInitializeQTablesFromFile() {
+    private static TrainingCheckpoint readOrInitializeCheckpointFromFile() {
+        try {
+            if (Files.exists(Paths.get(CHECKPOINT_FILENAME))) {
+                return TrainingCheckpoint.read(Paths.get(CHECKPOINT_FILENAME));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new TrainingCheckpoint();
+    }
+
+    private TransitionModel readOrInitializeTransitionModelFromFile() {
+        try {
+            if (Files.exists(Paths.get(MODEL_FILENAME))) {
+                TransitionModel model = TransitionModel.read(Paths.get(MODEL_FILENAME));
+                if (model.getStateCount() == stateCount && model.getActionCount() == actionCount) {
+                    return model;
+                }
+                LOGGER.warning("Ignoring the transition model of another state or action space in " + MODEL_FILENAME);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new TransitionModel(stateCount, actionCount);
+    }
+
+    /* Starts the counters of the training progress, and the checkpoints that are written in the background */
+    private void startTraining() {
+        stats.startTraining();
+        checkpointWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "qlearner-checkpoints");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointWriter.scheduleWithFixedDelay(this::writeCheckpoint, checkpointMillis, checkpointMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /* Stops the checkpoints, after the one that is being written, if any */
+    private void endTraining() {
+        checkpointWriter.shutdown();
+        try {
+            checkpointWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpointWriter = null;
+        stats.endTraining();
+        publishStats();
+    }
+
+    /*
+     * Writes the Q matrices, the observed transitions and the progress of the training. They are
+     * copied between the episodes of all workers, which wait meanwhile, and the copies are written
+     * while the training goes on, so that all files of a checkpoint hold the same whole episodes
+     */
+    private void writeCheckpoint() {
+        QTableStore qTablesSnapshot;
+        ReplayBuffer replayBufferSnapshot;
+        TransitionModel transitionModelSnapshot;
+        TrainingCheckpoint checkpointSnapshot;
+
+        episodeLock.writeLock().lock();
+        try {
+            qTablesSnapshot = qTables.copy();
+            replayBufferSnapshot = replayBuffer == null ? null : replayBuffer.copy();
+            transitionModelSnapshot = transitionModel.copy();
+            checkpointSnapshot = checkpoint.copy();
+        } finally {
+            episodeLock.writeLock().unlock();
+        }
+
+        writeQTablesToFile(qTablesSnapshot);
+        if (replayBufferSnapshot != null) {
+            writeReplayBufferToFile(replayBufferSnapshot);
+        }
+        writeTransitionModelToFile(transitionModelSnapshot);
+        writeCheckpointToFile(checkpointSnapshot);
+        LOGGER.fine("Wrote a checkpoint");
+    }
+
+    private static ReplayBuffer readOrInitializeReplayBufferFromFile() {
         try {
-            String json = new String(Files.readAllBytes(Paths.get(FILENAME)));
-            Gson gson = new Gson();
-            return gson.fromJson(json, new TypeToken<HashMap<String, double[][]>>() {
-            }.getType());
+            if (Files.exists(Paths.get(REPLAY_FILENAME))) {
+                return ReplayBuffer.read(Paths.get(REPLAY_FILENAME));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return new HashMap<>();
+        return new ReplayBuffer(REPLAY_CAPACITY);
+    }
+
+    private QTableStore readOrInitializeQTablesFromFile() {
+        QTableStore store = new QTableStore(stateCount, actionCount, layout, precision, maxMagnitude);
+        try {
+            if (Files.exists(Paths.get(FILENAME))) {
+                QTableFile.read(Paths.get(FILENAME), store);
+            } else if (Files.exists(Paths.get(JSON_FILENAME))) {
+                // Q tables that were stored before the binary format was introduced
+                for (Map.Entry<String, double[][]> qTable : readQTablesFromJson(JSON_FILENAME).entrySet()) {
+                    store.putTable(qTable.getKey(), qTable.getValue());
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            moveAsideUnreadableQTablesFile();
+            return new QTableStore(stateCount, actionCount, layout, precision, maxMagnitude);
+        }
+        return store;
+    }
+
+    /* Keeps an unreadable Q tables file from being overwritten by the Q matrices that are calculated from scratch */
+    private static void moveAsideUnreadableQTablesFile() {
+        if (!Files.exists(Paths.get(FILENAME))) {
+            return;
+        }
+        try {
+            Files.move(Paths.get(FILENAME), Paths.get(CORRUPT_FILENAME), StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.warning("Could not read " + FILENAME + ", moved it to " + CORRUPT_FILENAME + " and starting from scratch");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + FILENAME + " nor move it aside", e);
+        }
+    }
+
+    /* The key of the Q matrix of a goal description, e.g. "[2,3]" */
+    private static String goalKey(int z1, int z2) {
+        return String.format("[%d,%d]", z1, z2);
+    }
+
+    /* The code of a goal description in the replay buffer, independent of the goal slots */
+    private static int goalCode(LearningEnvironment env, int z1, int z2) {
+        return z1 * env.getStateCodec().getRadix(1) + z2;
+    }
+
+    private static void writeQTablesToJson(HashMap<String, double[][]> qTables, String path) throws IOException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(qTables);
+        try (FileWriter writer = new FileWriter(path)) {
+            writer.write(json);
+        }
+    }
+
+    private static HashMap<String, double[][]> readQTablesFromJson(String path) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(path)));
+        Gson gson = new Gson();
+        return gson.fromJson(json, new TypeToken<HashMap<String, double[][]>>() {
+        }.getType());
+    }
+
+    /* Registers the training progress with JMX under the name of the artifact */
+    private void registerStats() {
+        try {
+            statsName = new ObjectName("tools:type=QLearner,name=" + ObjectName.quote(getId().getName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, statsName);
+        } catch (JMException e) {
+            statsName = null;
+            LOGGER.warning("Could not register the training progress with JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void dispose() {
+        if (statsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+            } catch (JMException e) {
+                LOGGER.warning("Could not unregister the training progress from JMX: " + e.getMessage());
+            }
+        }
+    }
+
+    /* Updates the observable property of the training progress; only called on the thread of an operation */
+    private void publishStats() {
+        statsPublishedNanos = System.nanoTime();
+        if (getObsProperty("training_stats") != null) {
+            updateObsProperty("training_stats", stats.getEpisodesPerSecond(), stats.getStepsPerSecond(),
+                    stats.getAverageEpisodeLength(), stats.getLastEpisodeMaxDeltaQ(), stats.getEnvironmentShare());
+        }
+    }
+
+    private void publishStatsPeriodically() {
+        if (System.nanoTime() - statsPublishedNanos >= TimeUnit.MILLISECONDS.toNanos(STATS_PUBLISH_MILLIS)) {
+            publishStats();
+        }
+    }
+
+    private void initializeTransitionModel() {
+        if (transitionModel == null) {
+            transitionModel = readOrInitializeTransitionModelFromFile();
+        }
+    }
+
+    /* The reward of reaching a state, as computed by checkReward for the current state */
+    private static int getReward(LearningEnvironment env, int reward, int z1, int z2, int state) {
+        StateCodec codec = env.getStateCodec();
+        return codec.getValue(state, 0) == z1 && codec.getValue(state, 1) == z2 ? reward : 0;
     }
 
-    private int checkReward(int reward, Integer z1, Integer z2) {
-        if (Objects.equals(z1, lab.getCurrentState().get(0))
-                && Objects.equals(z2, lab.getCurrentState().get(1))) {
+    private int checkReward(LearningEnvironment env, int reward, Integer z1, Integer z2) {
+        if (Objects.equals(z1, env.getCurrentState().get(0))
+                && Objects.equals(z2, env.getCurrentState().get(1))) {
             LOGGER.info("Got the chronic");
             return reward;
         } else {
@@ -222,11 +1147,16 @@ public class QLearner extends Artifact {
         }
     }
 
-    private double getMaxQSA(int currentState, double[][] qTable) {
-        List<Integer> possibleActions = lab.getApplicableActions(currentState);
+    static double getMaxQSA(QTableStore qTables, LearningEnvironment env, int goal, int currentState) {
+        int[] possibleActions = env.getApplicableActionArray(currentState);
+        int row = qTables.findRowOffset(goal, currentState);
+        if (row < 0) {
+            // a state without a row in the sparse layout has Q values of 0
+            return 0.0;
+        }
         double max = 0.0;
         for (int item : possibleActions) {
-            double possibleMax = qTable[currentState][item];
+            double possibleMax = qTables.get(row + item);
             if (possibleMax > max) {
                 max = possibleMax;
             }
@@ -255,55 +1185,55 @@ public class QLearner extends Artifact {
         int z1 = Integer.parseInt(goalDescription[0].toString());
         int z2 = Integer.parseInt(goalDescription[1].toString());
 
-        String targetState = String.format("%d,%d", z1, z2);
+        String targetState = goalKey(z1, z2);
 
-        double[][] singleQTable = qTables.get(targetState);
+        if (qTables == null) {
+            qTables = readOrInitializeQTablesFromFile();
+        }
+        int goal = qTables.getGoal(targetState);
+        if (goal < 0) {
+            failed("No Q matrix has been calculated for " + targetState);
+            return;
+        }
         int currentIndex = lab.readCurrentState();
         System.out.println("current Index: " + currentIndex);
         double randomNumber = random.nextDouble();
         double epsilon = 0.9;
-        double[] possibleActions = singleQTable[currentIndex];
-        List<Integer> applicableActions = lab.getApplicableActions(currentIndex);
+        int row = qTables.findRowOffset(goal, currentIndex);
+        int[] applicableActions = lab.getApplicableActionArray(currentIndex);
 
-        int nextAction = applicableActions.get(random.nextInt(applicableActions.size()));
+        int nextAction = applicableActions[random.nextInt(applicableActions.length)];
         if (randomNumber > epsilon) {
-            nextAction = getMaxValueIndex(possibleActions, applicableActions);
+            nextAction = getMaxValueIndex(random, qTables, row, applicableActions);
         }
-        ActionHandler.handleAction(nextAction, nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
+        ActionHandler.handleAction(lab.getAction(nextAction), nextBestActionTag, nextBestActionPayloadTags,
+                nextBestActionPayload);
     }
 
-    private int getMaxValueIndex(double[] possibleActions, List<Integer> applicableActions) {
-        int maxIndex = 0;
+    /* Returns an applicable action of the largest Q value in a row, or a random one if the row is -1 or all 0 */
+    static int getMaxValueIndex(Random random, QTableStore qTables, int row, int[] applicableActions) {
+        if (row < 0) {
+            return applicableActions[random.nextInt(applicableActions.length)];
+        }
+        int maxIndex = applicableActions[0];
 
-        double maxValue = possibleActions[applicableActions.get(0)];
+        double maxValue = qTables.get(row + maxIndex);
 
-        for (Integer applicableAction : applicableActions) {
-            if (possibleActions[applicableAction] > maxValue) {
-                maxValue = possibleActions[applicableAction];
+        for (int applicableAction : applicableActions) {
+            double value = qTables.get(row + applicableAction);
+            if (value > maxValue) {
+                maxValue = value;
                 maxIndex = applicableAction;
             }
         }
         if (maxValue == 0.0) {
-            int maxIndexHelper = random.nextInt(applicableActions.size());
-            maxIndex = applicableActions.get(maxIndexHelper);
+            int maxIndexHelper = random.nextInt(applicableActions.length);
+            maxIndex = applicableActions[maxIndexHelper];
         }
         return maxIndex;
     }
 
-    /**
-     * Initialize a Q matrix
-     *
-     * @return the Q matrix
-     */
-    private double[][] initializeQTable() {
-        double[][] qTable = new double[stateCount][actionCount];
-        for (int i = 0; i < stateCount; i++) {
-            Arrays.fill(qTable[i], 0.0);
-        }
-        return qTable;
-    }
-
-    private static class HyperParams {
+    static class HyperParams {
         private final double alpha;
         private final double gamma;
         private final double epsilon;
@@ -345,166 +1275,19 @@ public class QLearner extends Artifact {
 
     private static class ActionHandler {
 
-        static void handleAction(int nextAction, OpFeedbackParam<String> nextBestActionTag,
+        static void handleAction(Action nextAction, OpFeedbackParam<String> nextBestActionTag,
                                  OpFeedbackParam<Object[]> nextBestActionPayloadTags,
                                  OpFeedbackParam<Object[]> nextBestActionPayload) {
-            switch (nextAction) {
-                case 0:
-                    setZ1LightFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 1:
-                    setZ1LightTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 2:
-                    setZ2LightFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 3:
-                    setZ2LightTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 4:
-                    setZ1BlindsFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 5:
-                    setZ1BlindsTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 6:
-                    setZ2BlindsFalse(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                case 7:
-                    setZ2BlindsTrue(nextBestActionTag, nextBestActionPayloadTags, nextBestActionPayload);
-                    break;
-                default:
-                    // Uh ohhhhhhh
-                    System.err.println("U done goofed: " + nextAction);
-                    break;
-            }
-        }
-        private static void setZ1LightTrue(OpFeedbackParam<String> nextBestActionTag,
-                                           OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                           OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ1Light");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z1Light"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {true};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ1LightFalse(OpFeedbackParam<String> nextBestActionTag,
-                                            OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                            OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ1Light");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z1Light"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {false};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ2LightFalse(OpFeedbackParam<String> nextBestActionTag,
-                                            OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                            OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ2Light");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z2Light"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {false};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ2LightTrue(OpFeedbackParam<String> nextBestActionTag,
-                                           OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                           OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ2Light");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z2Light"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {true};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ1BlindsTrue(OpFeedbackParam<String> nextBestActionTag,
-                                            OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                            OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ1Blinds");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z1Blinds"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {true};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ1BlindsFalse(OpFeedbackParam<String> nextBestActionTag,
-                                             OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                             OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ1Blinds");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z1Blinds"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {false};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ2BlindsFalse(OpFeedbackParam<String> nextBestActionTag,
-                                             OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                             OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ2Blinds");
-
-            // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z2Blinds"};
-            nextBestActionPayloadTags.set(payloadTags);
-
-            // sets the payload of the next best action to be returned
-            Object[] payload = {false};
-            nextBestActionPayload.set(payload);
-        }
-
-        private static void setZ2BlindsTrue(OpFeedbackParam<String> nextBestActionTag,
-                                            OpFeedbackParam<Object[]> nextBestActionPayloadTags,
-                                            OpFeedbackParam<Object[]> nextBestActionPayload) {
-            // sets the semantic annotation of the next best action to be returned
-            nextBestActionTag.set("http://example.org/was#SetZ2Blinds");
+            // sets the semantic annotation of the next best action to be returned,
+            // e.g. "http://example.org/was#SetZ1Light"
+            nextBestActionTag.set(nextAction.getActionTag());
 
             // sets the semantic annotation of the payload of the next best action to be
-            // returned
-            Object[] payloadTags = {"Z2Blinds"};
-            nextBestActionPayloadTags.set(payloadTags);
+            // returned, e.g. ["Z1Light"]
+            nextBestActionPayloadTags.set(nextAction.getPayloadTags());
 
-            // sets the payload of the next best action to be returned
-            Object[] payload = {true};
-            nextBestActionPayload.set(payload);
+            // sets the payload of the next best action to be returned, e.g. [true]
+            nextBestActionPayload.set(nextAction.getPayload());
         }
     }
 }
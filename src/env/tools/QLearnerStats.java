@@ -0,0 +1,175 @@
+package tools;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The training progress of a {@link QLearner} artifact: throughput, episode lengths,
+ * the changes of the Q values and the split of the training time between the
+ * environment and the computation.
+ *
+ * <p> The counters are reset when a training operation starts. Episodes are recorded
+ * by the training workers concurrently, each through its own {@link Episode}, so that
+ * steps are counted without contention.
+ * </p>
+ */
+public final class QLearnerStats implements QLearnerStatsMXBean {
+
+    private final LongAdder episodes = new LongAdder();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder environmentNanos = new LongAdder();
+    private final LongAdder computeNanos = new LongAdder();
+    private volatile double lastEpisodeMaxDeltaQ;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean training;
+
+    /**
+     * Resets the counters at the start of a training operation
+     */
+    public void startTraining() {
+        episodes.reset();
+        steps.reset();
+        environmentNanos.reset();
+        computeNanos.reset();
+        lastEpisodeMaxDeltaQ = 0;
+        startNanos = System.nanoTime();
+        training = true;
+    }
+
+    /**
+     * Freezes the rates at the end of a training operation
+     */
+    public void endTraining() {
+        endNanos = System.nanoTime();
+        training = false;
+    }
+
+    /**
+     * Starts recording an episode on the calling thread
+     *
+     * @return the episode, which is recorded by {@link #endEpisode(Episode)}
+     */
+    public Episode startEpisode() {
+        return new Episode();
+    }
+
+    /**
+     * Adds a completed episode to the counters
+     *
+     * @param episode the episode
+     */
+    public void endEpisode(Episode episode) {
+        long episodeNanos = System.nanoTime() - episode.startNanos;
+        episodes.increment();
+        steps.add(episode.steps);
+        environmentNanos.add(episode.environmentNanos);
+        computeNanos.add(Math.max(0, episodeNanos - episode.environmentNanos));
+        lastEpisodeMaxDeltaQ = episode.maxDeltaQ;
+    }
+
+    @Override
+    public boolean isTraining() {
+        return training;
+    }
+
+    @Override
+    public long getEpisodes() {
+        return episodes.sum();
+    }
+
+    @Override
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    @Override
+    public double getEpisodesPerSecond() {
+        return perSecond(episodes.sum());
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return perSecond(steps.sum());
+    }
+
+    @Override
+    public double getAverageEpisodeLength() {
+        long count = episodes.sum();
+        return count == 0 ? 0 : (double) steps.sum() / count;
+    }
+
+    @Override
+    public double getLastEpisodeMaxDeltaQ() {
+        return lastEpisodeMaxDeltaQ;
+    }
+
+    @Override
+    public double getEnvironmentSeconds() {
+        return toSeconds(environmentNanos.sum());
+    }
+
+    @Override
+    public double getComputeSeconds() {
+        return toSeconds(computeNanos.sum());
+    }
+
+    @Override
+    public double getEnvironmentShare() {
+        long environment = environmentNanos.sum();
+        long total = environment + computeNanos.sum();
+        return total == 0 ? 0 : (double) environment / total;
+    }
+
+    private double perSecond(long count) {
+        long elapsedNanos = (training ? System.nanoTime() : endNanos) - startNanos;
+        return elapsedNanos <= 0 ? 0 : count / toSeconds(elapsedNanos);
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * The progress of an episode, which is only updated by the thread that runs the episode
+     */
+    public static final class Episode {
+
+        private final long startNanos = System.nanoTime();
+        private int steps;
+        private double maxDeltaQ;
+        private long environmentNanos;
+
+        private Episode() {
+        }
+
+        public void step() {
+            steps++;
+        }
+
+        /**
+         * Records the change of a Q value
+         *
+         * @param deltaQ the difference between the new and the old Q value
+         */
+        public void update(double deltaQ) {
+            maxDeltaQ = Math.max(maxDeltaQ, Math.abs(deltaQ));
+        }
+
+        /**
+         * Records time spent in the environment
+         *
+         * @param nanos the time in nanoseconds
+         */
+        public void environment(long nanos) {
+            environmentNanos += nanos;
+        }
+
+        /**
+         * Returns the largest absolute change of a Q value in the episode so far
+         */
+        public double getMaxDeltaQ() {
+            return maxDeltaQ;
+        }
+    }
+}
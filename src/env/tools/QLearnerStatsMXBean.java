@@ -0,0 +1,45 @@
+package tools;
+
+/**
+ * The JMX view of the training progress of a {@link QLearner} artifact, registered as
+ * tools:type=QLearner,name=&lt;artifact name&gt;. The rates and times refer to the current
+ * training operation, or to the last one if no training is running.
+ */
+public interface QLearnerStatsMXBean {
+
+    boolean isTraining();
+
+    long getEpisodes();
+
+    long getSteps();
+
+    double getEpisodesPerSecond();
+
+    double getStepsPerSecond();
+
+    double getAverageEpisodeLength();
+
+    /**
+     * Returns the largest change of a Q value in the last completed episode, which
+     * approaches 0 as the Q matrix converges
+     */
+    double getLastEpisodeMaxDeltaQ();
+
+    /**
+     * Returns the time spent in the environment (performing actions, waiting for their
+     * effects, reading the state and resetting), summed over the training workers
+     */
+    double getEnvironmentSeconds();
+
+    /**
+     * Returns the time spent in choosing actions and updating Q values, summed over the
+     * training workers
+     */
+    double getComputeSeconds();
+
+    /**
+     * Returns the fraction of the training time that is spent in the environment; a
+     * share close to 1 means that the environment is the bottleneck
+     */
+    double getEnvironmentShare();
+}
@@ -0,0 +1,477 @@
+package tools;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the Q matrices of a {@link QTableStore} in a compact binary format.
+ * A file is not kept mapped as the backing of a store: reading a file copies its Q values
+ * into the store, whose rows grow and change precision independently of the file, and
+ * writing a store copies its Q values back.
+ *
+ * <p> The file starts with a header of 16 bytes: the magic number "QTBL", the format
+ * version, the number of tables and a reserved integer. Each table follows as a
+ * section with:
+ * <ul>
+ * <li> the length of the goal key (e.g. "[2,3]") and its UTF-8 bytes, padded to 8 bytes
+ * <li> the state count and the action count
+ * <li> the CRC32 checksum of the Q values
+ * <li> the Q values as doubles, row by row
+ * </ul>
+ * Q values are always stored as doubles, independently of the precision of the store.
+ * </p>
+ *
+ * <p> Stores with the sparse layout are written in version 2 of the format, where only
+ * the states that have a row are stored: after the action count, a section holds the
+ * number of rows and a reserved integer, the CRC32 checksum of the rows, and each row
+ * as the state (a long) followed by its Q values. Files of both versions can be read
+ * into stores of both layouts.
+ * </p>
+ *
+ * <p> Tables are stored in the order of their goal keys. When a file is written over a
+ * file of the same size (e.g. by the checkpoints of a training, which change few Q values),
+ * only the pages of {@link #PAGE_BYTES} bytes that differ are written: they are first
+ * written to a journal next to the file, which ends with the CRC32 checksum of the pages,
+ * and then into the file. A journal that is left by a crash is applied when the file is
+ * next read or written, or discarded if it is incomplete, in which case the file has not
+ * been touched yet. Other files are written to a temporary file next to them, which then
+ * replaces the file atomically. Either way, a crash while the Q matrices are written
+ * leaves either the previous or the new Q matrices.
+ * </p>
+ *
+ * <p> The journal starts with the magic number "QTJL", its version, the size of the file
+ * and the number of pages, followed by each page as its position in the file, its length
+ * and its bytes, and by the checksum of everything before it.
+ * </p>
+ */
+public final class QTableFile {
+
+    private static final int MAGIC = 0x5154424C; // "QTBL"
+    private static final int VERSION = 1;
+    private static final int SPARSE_VERSION = 2;
+    private static final int FILE_HEADER_BYTES = 16;
+    private static final int JOURNAL_MAGIC = 0x51544A4C; // "QTJL"
+    private static final int JOURNAL_VERSION = 1;
+    private static final int JOURNAL_HEADER_BYTES = 20;
+
+    /**
+     * The unit in which files of the same size are compared and updated
+     */
+    static final int PAGE_BYTES = 4096;
+
+    private QTableFile() {
+    }
+
+    /**
+     * Reads the Q matrices of a Q table file into a store
+     *
+     * @param path    the location of the file
+     * @param qTables the store that receives the Q matrices
+     * @throws IOException if the file cannot be read, is corrupted, or holds Q matrices
+     *                     with other dimensions than the store
+     */
+    public static void read(Path path, QTableStore qTables) throws IOException {
+        recover(path);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        int version = readFileHeader(buffer, path);
+        int tableCount = buffer.getInt();
+        buffer.getInt();
+
+        for (int t = 0; t < tableCount; t++) {
+            String key = readKey(buffer);
+            int stateCount = buffer.getInt();
+            int actionCount = buffer.getInt();
+            int rowCount = stateCount;
+            if (version == SPARSE_VERSION) {
+                rowCount = buffer.getInt();
+                buffer.getInt();
+            }
+            long checksum = buffer.getLong();
+
+            int rowBytes = (version == SPARSE_VERSION ? 8 : 0) + actionCount * 8;
+            ByteBuffer rows = slice(buffer, (long) rowCount * rowBytes);
+            if (checksum(rows) != checksum) {
+                throw new IOException("Corrupted Q table " + key + " in " + path);
+            }
+            if (stateCount != qTables.getStateCount() || actionCount != qTables.getActionCount()) {
+                throw new IOException("The Q table " + key + " in " + path + " has "
+                        + stateCount + "x" + actionCount + " values");
+            }
+
+            int goal = qTables.addGoal(key);
+            for (int row = 0; row < rowCount; row++) {
+                int position = row * rowBytes;
+                long state = row;
+                if (version == SPARSE_VERSION) {
+                    state = rows.getLong(position);
+                    position += 8;
+                    if (state < 0 || state >= stateCount) {
+                        throw new IOException("Corrupted Q table " + key + " in " + path);
+                    }
+                }
+                readRow(rows, position, qTables, goal, (int) state);
+            }
+        }
+    }
+
+    /* Reads the Q values of a state, and skips rows of zeros in sparse stores so that they take no memory */
+    private static void readRow(ByteBuffer rows, int position, QTableStore qTables, int goal, int state) {
+        int actionCount = qTables.getActionCount();
+        if (qTables.getLayout() == QTableStore.Layout.SPARSE && qTables.findRowOffset(goal, state) < 0) {
+            boolean zero = true;
+            for (int action = 0; action < actionCount && zero; action++) {
+                zero = rows.getDouble(position + action * 8) == 0;
+            }
+            if (zero) {
+                return;
+            }
+        }
+        int offset = qTables.rowOffset(goal, state);
+        for (int action = 0; action < actionCount; action++) {
+            qTables.set(offset + action, rows.getDouble(position + action * 8));
+        }
+    }
+
+    /**
+     * Writes Q matrices to a Q table file. If the file has the size of the new file, only the
+     * pages that changed are written, through a journal; otherwise the file is replaced atomically.
+     *
+     * @param path    the location of the file
+     * @param qTables the store of the Q matrices
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, QTableStore qTables) throws IOException {
+        recover(path);
+        ByteBuffer image = qTables.getLayout() == QTableStore.Layout.SPARSE ? writeSparse(qTables) : writeDense(qTables);
+
+        if (Files.exists(path) && Files.size(path) == image.capacity() && update(path, image)) {
+            return;
+        }
+        replace(path, image);
+    }
+
+    /**
+     * Writes the pages of an existing file of the same size that differ from the new file, through
+     * the journal. Returns false if more than half of the pages differ, as replacing the file then
+     * writes fewer bytes.
+     */
+    private static boolean update(Path path, ByteBuffer image) throws IOException {
+        List<Integer> changedPages = new ArrayList<>();
+        int pageCount = (image.capacity() + PAGE_BYTES - 1) / PAGE_BYTES;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer page = ByteBuffer.allocate(PAGE_BYTES);
+            for (int position = 0; position < image.capacity(); position += PAGE_BYTES) {
+                page.clear();
+                page.limit(Math.min(PAGE_BYTES, image.capacity() - position));
+                readFully(channel, page, position);
+                page.flip();
+                if (!page.equals(page(image, position))) {
+                    changedPages.add(position);
+                }
+            }
+        }
+
+        if (changedPages.isEmpty()) {
+            return true;
+        }
+        if (changedPages.size() * 2 > pageCount) {
+            return false;
+        }
+
+        Path journal = journalOf(path);
+        writeJournal(journal, image, changedPages);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            for (int position : changedPages) {
+                writeFully(channel, page(image, position), position);
+            }
+            channel.force(false);
+        }
+        Files.delete(journal);
+        return true;
+    }
+
+    /* Writes a file to a temporary file next to it, which then replaces the file atomically */
+    private static void replace(Path path, ByteBuffer image) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeFully(channel, image.duplicate(), 0);
+                channel.force(false);
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /* Writes the changed pages of a file to its journal, which is complete once it is forced */
+    private static void writeJournal(Path journal, ByteBuffer image, List<Integer> changedPages) throws IOException {
+        long size = JOURNAL_HEADER_BYTES + 8;
+        for (int position : changedPages) {
+            size += 8 + 4 + page(image, position).remaining();
+        }
+
+        ByteBuffer buffer = allocate(size);
+        buffer.putInt(JOURNAL_MAGIC);
+        buffer.putInt(JOURNAL_VERSION);
+        buffer.putLong(image.capacity());
+        buffer.putInt(changedPages.size());
+        for (int position : changedPages) {
+            ByteBuffer page = page(image, position);
+            buffer.putLong(position);
+            buffer.putInt(page.remaining());
+            buffer.put(page);
+        }
+        ByteBuffer entries = buffer.duplicate();
+        entries.flip();
+        buffer.putLong(checksum(entries));
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, buffer, 0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Completes an update of a file that was interrupted by a crash: a complete journal is
+     * applied to the file, while an incomplete one is discarded, as the file has not been
+     * written before the journal was complete
+     */
+    private static void recover(Path path) throws IOException {
+        Path journal = journalOf(path);
+        if (!Files.exists(journal)) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(journal));
+        if (isComplete(buffer) && Files.exists(path) && Files.size(path) == buffer.getLong(8)) {
+            long size = buffer.getLong(8);
+            int pageCount = buffer.getInt(16);
+            buffer.position(JOURNAL_HEADER_BYTES);
+            buffer.limit(buffer.capacity() - 8);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                for (int p = 0; p < pageCount; p++) {
+                    long position = buffer.getLong();
+                    int length = buffer.getInt();
+                    if (position < 0 || length < 0 || position + length > size || length > buffer.remaining()) {
+                        throw new IOException("Corrupted Q table journal: " + journal);
+                    }
+                    ByteBuffer page = buffer.slice();
+                    page.limit(length);
+                    buffer.position(buffer.position() + length);
+                    writeFully(channel, page, position);
+                }
+                channel.force(false);
+            }
+        }
+        Files.delete(journal);
+    }
+
+    /* A journal is complete if its checksum matches the bytes before it */
+    private static boolean isComplete(ByteBuffer journal) {
+        if (journal.capacity() < JOURNAL_HEADER_BYTES + 8
+                || journal.getInt(0) != JOURNAL_MAGIC || journal.getInt(4) != JOURNAL_VERSION) {
+            return false;
+        }
+        ByteBuffer entries = journal.duplicate();
+        entries.position(0);
+        entries.limit(journal.capacity() - 8);
+        return checksum(entries) == journal.getLong(journal.capacity() - 8);
+    }
+
+    private static Path journalOf(Path path) {
+        return path.resolveSibling(path.getFileName() + ".journal");
+    }
+
+    /* Returns a view of the page of the file that starts at the given position */
+    private static ByteBuffer page(ByteBuffer image, int position) {
+        ByteBuffer page = image.duplicate();
+        page.position(position);
+        page.limit(Math.min(image.capacity(), position + PAGE_BYTES));
+        return page.slice();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Truncated Q table file");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /* Allocates the buffer of a file, which is limited by the size of a byte array */
+    private static ByteBuffer allocate(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("The Q tables are too large for a Q table file: " + size + " bytes");
+        }
+        return ByteBuffer.allocate((int) size);
+    }
+
+    /**
+     * Creates the Q matrices of a dense store in version 1 of the format
+     */
+    private static ByteBuffer writeDense(QTableStore qTables) throws IOException {
+        SortedSet<String> sorted = new TreeSet<>(qTables.getGoalKeys());
+        int stateCount = qTables.getStateCount();
+        int actionCount = qTables.getActionCount();
+
+        long size = FILE_HEADER_BYTES;
+        for (String key : sorted) {
+            size += sectionBytes(key, 0, stateCount, (long) actionCount * 8);
+        }
+
+        ByteBuffer buffer = allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(sorted.size());
+        buffer.putInt(0);
+
+        for (String goalKey : sorted) {
+            writeKey(buffer, goalKey);
+            buffer.putInt(stateCount);
+            buffer.putInt(actionCount);
+            int checksumPosition = buffer.position();
+            buffer.putLong(0);
+
+            ByteBuffer values = slice(buffer, (long) stateCount * actionCount * 8);
+            DoubleBuffer doubles = values.asDoubleBuffer();
+            int offset = qTables.rowOffset(qTables.getGoal(goalKey), 0);
+            for (int index = 0; index < stateCount * actionCount; index++) {
+                doubles.put(qTables.get(offset + index));
+            }
+            buffer.putLong(checksumPosition, checksum(values));
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Creates the rows of a sparse store in version 2 of the format. The rows of each goal
+     * are counted first, as other threads may allocate rows while the file is created.
+     */
+    private static ByteBuffer writeSparse(QTableStore qTables) throws IOException {
+        SortedMap<String, Integer> rowCounts = new TreeMap<>();
+        for (String key : qTables.getGoalKeys()) {
+            rowCounts.put(key, qTables.getGoalRowCount(qTables.getGoal(key)));
+        }
+        int actionCount = qTables.getActionCount();
+        long rowBytes = 8 + (long) actionCount * 8;
+
+        long size = FILE_HEADER_BYTES;
+        for (Map.Entry<String, Integer> rowCount : rowCounts.entrySet()) {
+            size += sectionBytes(rowCount.getKey(), 8, rowCount.getValue(), rowBytes);
+        }
+
+        ByteBuffer buffer = allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(SPARSE_VERSION);
+        buffer.putInt(rowCounts.size());
+        buffer.putInt(0);
+
+        for (Map.Entry<String, Integer> rowCount : rowCounts.entrySet()) {
+            int goal = qTables.getGoal(rowCount.getKey());
+            writeKey(buffer, rowCount.getKey());
+            buffer.putInt(qTables.getStateCount());
+            buffer.putInt(actionCount);
+            buffer.putInt(rowCount.getValue());
+            buffer.putInt(0);
+            int checksumPosition = buffer.position();
+            buffer.putLong(0);
+
+            ByteBuffer rows = slice(buffer, rowCount.getValue() * rowBytes);
+            for (int index = 0; index < rowCount.getValue(); index++) {
+                int row = qTables.getGoalRow(goal, index);
+                int offset = qTables.offsetOfRow(row);
+                rows.putLong(qTables.getRowState(row));
+                for (int action = 0; action < actionCount; action++) {
+                    rows.putDouble(qTables.get(offset + action));
+                }
+            }
+            rows.rewind();
+            buffer.putLong(checksumPosition, checksum(rows));
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    /* Reads the magic number and the version of a file, which are followed by the table count */
+    private static int readFileHeader(ByteBuffer buffer, Path path) throws IOException {
+        if (buffer.remaining() < FILE_HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a Q table file: " + path);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION && version != SPARSE_VERSION) {
+            throw new IOException("Unsupported Q table file version " + version + ": " + path);
+        }
+        return version;
+    }
+
+    private static String readKey(ByteBuffer buffer) {
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        buffer.position(buffer.position() + padding(key.length));
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private static void writeKey(ByteBuffer buffer, String goalKey) {
+        byte[] key = goalKey.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.position(buffer.position() + padding(key.length));
+    }
+
+    /* Returns a view of the given number of bytes that follow at the position of the buffer, and skips them */
+    private static ByteBuffer slice(ByteBuffer buffer, long length) throws IOException {
+        if (length > buffer.remaining()) {
+            throw new IOException("Truncated Q table file");
+        }
+        ByteBuffer values = buffer.slice();
+        values.limit((int) length);
+        buffer.position(buffer.position() + (int) length);
+        return values;
+    }
+
+    private static long checksum(ByteBuffer values) {
+        CRC32 crc = new CRC32();
+        crc.update(values.duplicate());
+        return crc.getValue();
+    }
+
+    /* The bytes of a section: the key, the dimensions, the given bytes of the section header, the checksum and the rows */
+    private static long sectionBytes(String key, int headerBytes, long rowCount, long rowBytes) {
+        int keyLength = key.getBytes(StandardCharsets.UTF_8).length;
+        return 4 + keyLength + padding(keyLength) + 4 + 4 + headerBytes + 8 + rowCount * rowBytes;
+    }
+
+    /* Pads the key, so that the Q values of every section are aligned to 8 bytes */
+    private static int padding(int keyLength) {
+        return (8 - (4 + keyLength) % 8) % 8;
+    }
+}
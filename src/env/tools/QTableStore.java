@@ -0,0 +1,596 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * Stores the Q matrices of several goal descriptions in primitive arrays.
+ *
+ * <p> Each goal description (e.g. "[2,3]") is assigned a goal slot when it is added.
+ * The Q values of a goal slot and a state form a row, whose Q value of an action is
+ * stored at the offset of the row plus the action. The rows are laid out in one of the
+ * following ways:
+ * <ul>
+ * <li> {@link Layout#DENSE}: every state has a row, stored in one contiguous array at
+ * <code>(goal * stateCount + state) * actionCount</code>, so that the tables of all
+ * goals follow each other
+ * <li> {@link Layout#SPARSE}: a row is allocated when a state of a goal is first
+ * updated, and found through a {@link LongIntHashMap} of the goal, so that the memory
+ * grows with the visited states rather than with the size of the state space. States
+ * without a row have Q values of zero.
+ * </ul>
+ * In both layouts, the rows are numbered from 0 on, and the offset of a row is
+ * <code>row * actionCount</code>.
+ * </p>
+ *
+ * <p> The Q values are stored with one of the following precisions:
+ * <ul>
+ * <li> {@link Precision#DOUBLE}: 8 bytes per value
+ * <li> {@link Precision#FLOAT}: 4 bytes per value
+ * <li> {@link Precision#FIXED16}: 2 bytes per value, as a fixed-point number within
+ * [-maxMagnitude, maxMagnitude]; values outside of the range are saturated
+ * </ul>
+ * </p>
+ *
+ * <p> Adding goals is not thread-safe. Once the goals are added, the Q values of
+ * different goals can be updated by different threads, also in the sparse layout,
+ * where rows are allocated in chunks that never move.
+ * </p>
+ */
+public final class QTableStore {
+
+    /**
+     * The precisions with which Q values can be stored
+     */
+    public enum Precision {
+        DOUBLE, FLOAT, FIXED16
+    }
+
+    /**
+     * The layouts of the rows of the Q matrices
+     */
+    public enum Layout {
+        DENSE, SPARSE
+    }
+
+    /* The Q values of the sparse layout are allocated in chunks of 2^CHUNK_BITS values */
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int INITIAL_ROWS = 64;
+
+    private final int stateCount;
+    private final int actionCount;
+    private final int tableSize;
+    private final Layout layout;
+    private final Precision precision;
+    private final double maxMagnitude;
+    private final double fixedScale;
+
+    private final Map<String, Integer> goals = new LinkedHashMap<>();
+
+    private double[] doubleValues = new double[0];
+    private float[] floatValues = new float[0];
+    private short[] fixedValues = new short[0];
+
+    /* The sparse layout: the rows of each goal slot */
+    private final List<GoalRows> goalRows = new ArrayList<>();
+
+    /* The sparse layout: the goal slot and the state of each row, and the chunks of the Q values */
+    private volatile int rowCount;
+    private volatile int[] rowGoals = new int[0];
+    private volatile int[] rowStates = new int[0];
+    private volatile double[][] doubleChunks = new double[0][];
+    private volatile float[][] floatChunks = new float[0][];
+    private volatile short[][] fixedChunks = new short[0][];
+
+    /**
+     * A {@link QTableStore} instance that stores Q values as doubles
+     *
+     * @param stateCount  the number of states of each Q matrix
+     * @param actionCount the number of actions of each Q matrix
+     */
+    public QTableStore(int stateCount, int actionCount) {
+        this(stateCount, actionCount, Precision.DOUBLE, 0);
+    }
+
+    /**
+     * A {@link QTableStore} instance with the dense layout
+     *
+     * @param stateCount   the number of states of each Q matrix
+     * @param actionCount  the number of actions of each Q matrix
+     * @param precision    the precision of the Q values
+     * @param maxMagnitude the largest absolute Q value that can be stored with
+     *                     {@link Precision#FIXED16}; ignored otherwise
+     */
+    public QTableStore(int stateCount, int actionCount, Precision precision, double maxMagnitude) {
+        this(stateCount, actionCount, Layout.DENSE, precision, maxMagnitude);
+    }
+
+    /**
+     * A {@link QTableStore} instance is constructed based on the dimensions of the Q
+     * matrices, the layout of their rows and the precision of the Q values
+     *
+     * @param stateCount   the number of states of each Q matrix
+     * @param actionCount  the number of actions of each Q matrix
+     * @param layout       the layout of the rows
+     * @param precision    the precision of the Q values
+     * @param maxMagnitude the largest absolute Q value that can be stored with
+     *                     {@link Precision#FIXED16}; ignored otherwise
+     */
+    public QTableStore(int stateCount, int actionCount, Layout layout, Precision precision, double maxMagnitude) {
+        if (precision == Precision.FIXED16 && !(maxMagnitude > 0)) {
+            throw new IllegalArgumentException("Fixed-point Q values need a positive range: " + maxMagnitude);
+        }
+        if (layout == Layout.DENSE && (long) stateCount * actionCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The Q matrices of " + stateCount + "x" + actionCount
+                    + " values need the sparse layout");
+        }
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        this.tableSize = layout == Layout.DENSE ? stateCount * actionCount : 0;
+        this.layout = layout;
+        this.precision = precision;
+        this.maxMagnitude = maxMagnitude;
+        this.fixedScale = precision == Precision.FIXED16 ? Short.MAX_VALUE / maxMagnitude : 1;
+    }
+
+    /**
+     * Returns a copy of this store, e.g. a snapshot of the Q values that are written
+     * while the training goes on. The Q values must not be updated while they are copied.
+     *
+     * @return the copy, with the layout and the precision of this store
+     */
+    public QTableStore copy() {
+        return copy(layout, precision, maxMagnitude);
+    }
+
+    /**
+     * Returns a copy of this store with the given precision
+     *
+     * @param precision    the precision of the Q values of the copy
+     * @param maxMagnitude the largest absolute Q value of the copy, for {@link Precision#FIXED16}
+     * @return the copy
+     */
+    public QTableStore withPrecision(Precision precision, double maxMagnitude) {
+        return copy(layout, precision, maxMagnitude);
+    }
+
+    /**
+     * Returns a copy of this store with the given layout. A sparse copy only has the
+     * rows of this store that hold a Q value other than zero.
+     *
+     * @param layout the layout of the rows of the copy
+     * @return the copy
+     */
+    public QTableStore withLayout(Layout layout) {
+        return copy(layout, precision, maxMagnitude);
+    }
+
+    private QTableStore copy(Layout layout, Precision precision, double maxMagnitude) {
+        QTableStore copy = new QTableStore(stateCount, actionCount, layout, precision, maxMagnitude);
+        for (String key : goals.keySet()) {
+            copy.addGoal(key);
+        }
+        int rows = getRowCount();
+        for (int row = 0; row < rows; row++) {
+            int offset = offsetOfRow(row);
+            if (layout == Layout.SPARSE && isZeroRow(offset)) {
+                continue;
+            }
+            int copyOffset = copy.rowOffset(getRowGoal(row), getRowState(row));
+            for (int action = 0; action < actionCount; action++) {
+                copy.set(copyOffset + action, get(offset + action));
+            }
+        }
+        return copy;
+    }
+
+    private boolean isZeroRow(int offset) {
+        for (int action = 0; action < actionCount; action++) {
+            if (get(offset + action) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public double getMaxMagnitude() {
+        return maxMagnitude;
+    }
+
+    /**
+     * Returns the goal descriptions of the stored Q matrices, in the order of their slots
+     *
+     * @return the goal descriptions
+     */
+    public Set<String> getGoalKeys() {
+        return Collections.unmodifiableSet(goals.keySet());
+    }
+
+    public int getGoalCount() {
+        return goals.size();
+    }
+
+    public boolean containsGoal(String key) {
+        return goals.containsKey(key);
+    }
+
+    /**
+     * Returns the slot of a goal description
+     *
+     * @param key the goal description, e.g. "[2,3]"
+     * @return the goal slot, or -1 if the goal is unknown
+     */
+    public int getGoal(String key) {
+        Integer goal = goals.get(key);
+        return goal == null ? -1 : goal;
+    }
+
+    /**
+     * Adds a Q matrix of zeros for a goal description, if the goal is unknown
+     *
+     * @param key the goal description, e.g. "[2,3]"
+     * @return the goal slot
+     */
+    public int addGoal(String key) {
+        Integer goal = goals.get(key);
+        if (goal != null) {
+            return goal;
+        }
+
+        int newGoal = goals.size();
+        if (layout == Layout.SPARSE) {
+            goalRows.add(new GoalRows());
+            goals.put(key, newGoal);
+            return newGoal;
+        }
+
+        int newLength = (newGoal + 1) * tableSize;
+        switch (precision) {
+            case DOUBLE:
+                doubleValues = Arrays.copyOf(doubleValues, newLength);
+                break;
+            case FLOAT:
+                floatValues = Arrays.copyOf(floatValues, newLength);
+                break;
+            default:
+                fixedValues = Arrays.copyOf(fixedValues, newLength);
+                break;
+        }
+        goals.put(key, newGoal);
+        return newGoal;
+    }
+
+    /**
+     * Returns the offset of the row of a state in the Q matrix of a goal. The Q value
+     * of an action is stored at the offset of the row plus the action. In the sparse
+     * layout, the row is allocated if the state has none yet.
+     *
+     * @param goal  the goal slot
+     * @param state the state
+     * @return the offset of the row
+     */
+    public int rowOffset(int goal, int state) {
+        if (layout == Layout.DENSE) {
+            return goal * tableSize + state * actionCount;
+        }
+        GoalRows rows = goalRows.get(goal);
+        synchronized (rows) {
+            int row = rows.index.get(state);
+            if (row == LongIntHashMap.MISSING) {
+                row = allocateRow(goal, state);
+                rows.add(state, row);
+            }
+            return offsetOfRow(row);
+        }
+    }
+
+    /**
+     * Returns the offset of the row of a state in the Q matrix of a goal, without
+     * allocating it
+     *
+     * @param goal  the goal slot
+     * @param state the state
+     * @return the offset of the row, or -1 if the state has no row in the sparse layout
+     */
+    public int findRowOffset(int goal, int state) {
+        if (layout == Layout.DENSE) {
+            return rowOffset(goal, state);
+        }
+        GoalRows rows = goalRows.get(goal);
+        synchronized (rows) {
+            int row = rows.index.get(state);
+            return row == LongIntHashMap.MISSING ? -1 : offsetOfRow(row);
+        }
+    }
+
+    /* Allocates a row of zeros in the sparse layout, under the lock of the rows of the goal */
+    private synchronized int allocateRow(int goal, int state) {
+        int row = rowCount;
+        if ((long) (row + 1) * actionCount > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The Q matrices cannot hold more than " + row + " rows");
+        }
+
+        if (row == rowGoals.length) {
+            int capacity = Math.max(INITIAL_ROWS, row * 2);
+            rowGoals = Arrays.copyOf(rowGoals, capacity);
+            rowStates = Arrays.copyOf(rowStates, capacity);
+        }
+        int lastChunk = (int) (((long) (row + 1) * actionCount - 1) >>> CHUNK_BITS);
+        switch (precision) {
+            case DOUBLE:
+                if (lastChunk >= doubleChunks.length) {
+                    double[][] chunks = Arrays.copyOf(doubleChunks, lastChunk + 1);
+                    for (int chunk = doubleChunks.length; chunk <= lastChunk; chunk++) {
+                        chunks[chunk] = new double[CHUNK_MASK + 1];
+                    }
+                    doubleChunks = chunks;
+                }
+                break;
+            case FLOAT:
+                if (lastChunk >= floatChunks.length) {
+                    float[][] chunks = Arrays.copyOf(floatChunks, lastChunk + 1);
+                    for (int chunk = floatChunks.length; chunk <= lastChunk; chunk++) {
+                        chunks[chunk] = new float[CHUNK_MASK + 1];
+                    }
+                    floatChunks = chunks;
+                }
+                break;
+            default:
+                if (lastChunk >= fixedChunks.length) {
+                    short[][] chunks = Arrays.copyOf(fixedChunks, lastChunk + 1);
+                    for (int chunk = fixedChunks.length; chunk <= lastChunk; chunk++) {
+                        chunks[chunk] = new short[CHUNK_MASK + 1];
+                    }
+                    fixedChunks = chunks;
+                }
+                break;
+        }
+
+        rowGoals[row] = goal;
+        rowStates[row] = state;
+        rowCount = row + 1;
+        return row;
+    }
+
+    /**
+     * Returns the number of rows of all goals, see {@link #offsetOfRow(int)}
+     */
+    public int getRowCount() {
+        return layout == Layout.DENSE ? goals.size() * stateCount : rowCount;
+    }
+
+    /**
+     * Returns the goal slot of a row
+     *
+     * @param row the row, in [0, {@link #getRowCount()})
+     * @return the goal slot
+     */
+    public int getRowGoal(int row) {
+        return layout == Layout.DENSE ? row / stateCount : rowGoals[row];
+    }
+
+    /**
+     * Returns the state of a row
+     *
+     * @param row the row, in [0, {@link #getRowCount()})
+     * @return the state
+     */
+    public int getRowState(int row) {
+        return layout == Layout.DENSE ? row % stateCount : rowStates[row];
+    }
+
+    /**
+     * Returns the offset of a row, see {@link #rowOffset(int, int)}
+     *
+     * @param row the row, in [0, {@link #getRowCount()})
+     * @return the offset
+     */
+    public int offsetOfRow(int row) {
+        return row * actionCount;
+    }
+
+    /**
+     * Returns the number of rows of a goal: the number of states in the dense layout,
+     * and the number of states that have a row in the sparse layout
+     *
+     * @param goal the goal slot
+     * @return the number of rows
+     */
+    public int getGoalRowCount(int goal) {
+        if (layout == Layout.DENSE) {
+            return stateCount;
+        }
+        GoalRows rows = goalRows.get(goal);
+        synchronized (rows) {
+            return rows.count;
+        }
+    }
+
+    /**
+     * Returns a row of a goal, in the order in which the rows of the goal were allocated
+     *
+     * @param goal  the goal slot
+     * @param index the index of the row among the rows of the goal, in [0, {@link #getGoalRowCount(int)})
+     * @return the row
+     */
+    public int getGoalRow(int goal, int index) {
+        if (layout == Layout.DENSE) {
+            return goal * stateCount + index;
+        }
+        GoalRows rows = goalRows.get(goal);
+        synchronized (rows) {
+            return rows.rows[index];
+        }
+    }
+
+    public double get(int goal, int state, int action) {
+        int row = findRowOffset(goal, state);
+        return row < 0 ? 0 : get(row + action);
+    }
+
+    public void set(int goal, int state, int action, double value) {
+        set(rowOffset(goal, state) + action, value);
+    }
+
+    /**
+     * Returns the Q value at an offset, see {@link #rowOffset(int, int)}
+     *
+     * @param offset the offset
+     * @return the Q value
+     */
+    public double get(int offset) {
+        if (layout == Layout.SPARSE) {
+            switch (precision) {
+                case DOUBLE:
+                    return doubleChunks[offset >>> CHUNK_BITS][offset & CHUNK_MASK];
+                case FLOAT:
+                    return floatChunks[offset >>> CHUNK_BITS][offset & CHUNK_MASK];
+                default:
+                    return fixedChunks[offset >>> CHUNK_BITS][offset & CHUNK_MASK] / fixedScale;
+            }
+        }
+        switch (precision) {
+            case DOUBLE:
+                return doubleValues[offset];
+            case FLOAT:
+                return floatValues[offset];
+            default:
+                return fixedValues[offset] / fixedScale;
+        }
+    }
+
+    /**
+     * Sets the Q value at an offset, see {@link #rowOffset(int, int)}
+     *
+     * @param offset the offset
+     * @param value  the Q value
+     */
+    public void set(int offset, double value) {
+        if (layout == Layout.SPARSE) {
+            switch (precision) {
+                case DOUBLE:
+                    doubleChunks[offset >>> CHUNK_BITS][offset & CHUNK_MASK] = value;
+                    break;
+                case FLOAT:
+                    floatChunks[offset >>> CHUNK_BITS][offset & CHUNK_MASK] = (float) value;
+                    break;
+                default:
+                    fixedChunks[offset >>> CHUNK_BITS][offset & CHUNK_MASK] = toFixed(value);
+                    break;
+            }
+            return;
+        }
+        switch (precision) {
+            case DOUBLE:
+                doubleValues[offset] = value;
+                break;
+            case FLOAT:
+                floatValues[offset] = (float) value;
+                break;
+            default:
+                fixedValues[offset] = toFixed(value);
+                break;
+        }
+    }
+
+    private short toFixed(double value) {
+        long fixed = Math.round(value * fixedScale);
+        return (short) Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, fixed));
+    }
+
+    /**
+     * Returns a copy of the Q matrix of a goal
+     *
+     * @param goal the goal slot
+     * @return the Q matrix
+     */
+    public double[][] toTable(int goal) {
+        double[][] qTable = new double[stateCount][actionCount];
+        int rows = getGoalRowCount(goal);
+        for (int index = 0; index < rows; index++) {
+            int row = getGoalRow(goal, index);
+            int offset = offsetOfRow(row);
+            for (int action = 0; action < actionCount; action++) {
+                qTable[getRowState(row)][action] = get(offset + action);
+            }
+        }
+        return qTable;
+    }
+
+    /**
+     * Stores a copy of a Q matrix for a goal description. In the sparse layout, the
+     * states whose Q values are all zero only keep the rows that they already have.
+     *
+     * @param key    the goal description, e.g. "[2,3]"
+     * @param qTable the Q matrix
+     * @return the goal slot
+     */
+    public int putTable(String key, double[][] qTable) {
+        if (qTable.length != stateCount || (stateCount > 0 && qTable[0].length != actionCount)) {
+            throw new IllegalArgumentException("The Q matrix of " + key + " does not have "
+                    + stateCount + "x" + actionCount + " values");
+        }
+        int goal = addGoal(key);
+        for (int state = 0; state < stateCount; state++) {
+            int row = findRowOffset(goal, state);
+            if (row < 0) {
+                if (Arrays.stream(qTable[state]).allMatch(value -> value == 0)) {
+                    continue;
+                }
+                row = rowOffset(goal, state);
+            }
+            for (int action = 0; action < actionCount; action++) {
+                set(row + action, qTable[state][action]);
+            }
+        }
+        return goal;
+    }
+
+    /**
+     * Returns the Q matrices of all goals as copies, e.g. for exporting them
+     *
+     * @return the Q matrices by goal description
+     */
+    public HashMap<String, double[][]> toTables() {
+        HashMap<String, double[][]> qTables = new HashMap<>();
+        for (Map.Entry<String, Integer> goal : goals.entrySet()) {
+            qTables.put(goal.getKey(), toTable(goal.getValue()));
+        }
+        return qTables;
+    }
+
+    /**
+     * The rows of a goal slot in the sparse layout: the row of each state that has one,
+     * and the rows in the order of their allocation. Guarded by its own lock.
+     */
+    private static final class GoalRows {
+
+        private final LongIntHashMap index = new LongIntHashMap(INITIAL_ROWS);
+        private int[] rows = new int[INITIAL_ROWS];
+        private int count;
+
+        private void add(int state, int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+            index.put(state, row);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package tools;
+
+import java.util.Objects;
+
+/**
+ * A raw reading of the status of a {@link LearningEnvironment}, which corresponds to a
+ * boolean or number property of the status, e.g. the lux value of the light level in
+ * Zone 1, whether or not the property is a state axis.
+ *
+ * <p> Readings are observed as doubles (see {@link LearningEnvironment#getObservation(double[])}):
+ * number properties by their values, and boolean properties as 0 and 1.
+ * </p>
+ */
+public final class Reading {
+
+    private final String semanticType;
+    private final boolean isBoolean;
+
+    private Reading(String semanticType, boolean isBoolean) {
+        this.semanticType = semanticType;
+        this.isBoolean = isBoolean;
+    }
+
+    /**
+     * Creates a reading of a boolean property
+     *
+     * @param semanticType the semantic type of the property, e.g. "http://example.org/was#Z1Light"
+     * @return the reading, observed as 0 and 1
+     */
+    public static Reading booleanReading(String semanticType) {
+        return new Reading(semanticType, true);
+    }
+
+    /**
+     * Creates a reading of a number property
+     *
+     * @param semanticType the semantic type of the property, e.g. "http://example.org/was#Z1Level"
+     * @return the reading, observed by the values of the property
+     */
+    public static Reading numberReading(String semanticType) {
+        return new Reading(semanticType, false);
+    }
+
+    public String getSemanticType() {
+        return semanticType;
+    }
+
+    public boolean isBoolean() {
+        return isBoolean;
+    }
+
+    /**
+     * Returns the observed value of a value of the property, as read from the status
+     * of the environment
+     *
+     * @param value the value of the property, e.g. true or 120.5
+     * @return the observed value, or 0 if the property has no value
+     */
+    public double observe(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Reading)) {
+            return false;
+        }
+        Reading other = (Reading) o;
+        return isBoolean == other.isBoolean && semanticType.equals(other.semanticType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(semanticType, isBoolean);
+    }
+
+    @Override
+    public String toString() {
+        return semanticType + (isBoolean ? "[boolean]" : "[number]");
+    }
+}
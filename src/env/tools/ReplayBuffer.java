@@ -0,0 +1,194 @@
+package tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * A fixed-capacity ring buffer of observed transitions (state, action, reward,
+ * next state, goal) for experience replay.
+ *
+ * <p> The transitions are stored in parallel primitive arrays, so that recording a
+ * transition does not allocate any object. Once the buffer is full, the oldest
+ * transitions are overwritten. The goal of a transition is an opaque integer code
+ * chosen by the learner (e.g. derived from the goal description), so that the
+ * buffer stays valid across runs that assign different goal slots.
+ * </p>
+ *
+ * <p> All methods are thread-safe, so that several workers can record and replay
+ * transitions of their own goals concurrently.
+ * </p>
+ */
+public final class ReplayBuffer {
+
+    private static final int MAGIC = 0x52504C42; // "RPLB"
+    private static final int VERSION = 1;
+
+    private final int capacity;
+    private final int[] states;
+    private final int[] actions;
+    private final int[] rewards;
+    private final int[] nextStates;
+    private final int[] goals;
+
+    private int size;
+    private int next;
+
+    /**
+     * A {@link ReplayBuffer} instance is constructed based on the number of
+     * transitions that it can hold
+     *
+     * @param capacity the number of transitions
+     */
+    public ReplayBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.states = new int[capacity];
+        this.actions = new int[capacity];
+        this.rewards = new int[capacity];
+        this.nextStates = new int[capacity];
+        this.goals = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records a transition, overwriting the oldest one if the buffer is full
+     *
+     * @param state     the state in which the action was performed
+     * @param action    the performed action
+     * @param reward    the received reward
+     * @param nextState the state that was observed after the action
+     * @param goal      the code of the goal against which the reward was computed
+     */
+    public synchronized void add(int state, int action, int reward, int nextState, int goal) {
+        states[next] = state;
+        actions[next] = action;
+        rewards[next] = reward;
+        nextStates[next] = nextState;
+        goals[next] = goal;
+
+        next = (next + 1) % capacity;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    /**
+     * Copies a uniformly sampled transition of a goal into the given array as
+     * [state, action, reward, nextState]. Transitions of other goals are skipped,
+     * up to a bounded number of attempts.
+     *
+     * @param random     the random number generator
+     * @param goal       the code of the goal
+     * @param transition the array of length 4 that receives the transition
+     * @return true if a transition of the goal was sampled
+     */
+    public synchronized boolean sample(Random random, int goal, int[] transition) {
+        for (int attempt = 0; attempt < 16 && size > 0; attempt++) {
+            int index = random.nextInt(size);
+            if (goals[index] == goal) {
+                transition[0] = states[index];
+                transition[1] = actions[index];
+                transition[2] = rewards[index];
+                transition[3] = nextStates[index];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the buffer, e.g. a snapshot of the transitions that is written
+     * while further transitions are recorded
+     *
+     * @return the copy, with the capacity of this buffer
+     */
+    public synchronized ReplayBuffer copy() {
+        ReplayBuffer copy = new ReplayBuffer(capacity);
+        System.arraycopy(states, 0, copy.states, 0, size);
+        System.arraycopy(actions, 0, copy.actions, 0, size);
+        System.arraycopy(rewards, 0, copy.rewards, 0, size);
+        System.arraycopy(nextStates, 0, copy.nextStates, 0, size);
+        System.arraycopy(goals, 0, copy.goals, 0, size);
+        copy.size = size;
+        copy.next = next;
+        return copy;
+    }
+
+    /**
+     * Writes the transitions of the buffer to a file, which is replaced atomically
+     *
+     * @param path the location of the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(capacity);
+            out.writeInt(size);
+            out.writeInt(next);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(states[i]);
+                out.writeInt(actions[i]);
+                out.writeInt(rewards[i]);
+                out.writeInt(nextStates[i]);
+                out.writeInt(goals[i]);
+            }
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a buffer from a file that has been written by {@link #write(Path)}
+     *
+     * @param path the location of the file
+     * @return the buffer, with the capacity that it had when it was written
+     * @throws IOException if the file cannot be read or is not a replay buffer file
+     */
+    public static ReplayBuffer read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a replay buffer file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported replay buffer file version " + version + ": " + path);
+            }
+
+            ReplayBuffer buffer = new ReplayBuffer(in.readInt());
+            int size = in.readInt();
+            int next = in.readInt();
+            if (size < 0 || size > buffer.capacity || next < 0 || next >= buffer.capacity) {
+                throw new IOException("Corrupted replay buffer file: " + path);
+            }
+
+            for (int i = 0; i < size; i++) {
+                buffer.states[i] = in.readInt();
+                buffer.actions[i] = in.readInt();
+                buffer.rewards[i] = in.readInt();
+                buffer.nextStates[i] = in.readInt();
+                buffer.goals[i] = in.readInt();
+            }
+            buffer.size = size;
+            buffer.next = next;
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package tools;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * A class that extends {@link LearningEnvironment} for representing an in-process
+ * simulation of the lab of the Interactions group.
+ *
+ * <p> A SimulatedLab instance has the same state space and action space as a
+ * {@link Lab} instance, and models the dynamics of the Node-RED simulator in
+ * <code>simulator/simulator_flow.json</code>: the actuators change as soon as an
+ * action is performed, while the light levels and the sunshine are recomputed on
+ * every tick of the simulator.
+ * </p>
+ *
+ * <p> The simulator is driven by a simulated clock that is only advanced through
+ * {@link #elapse(long)}, so that training against it is not bound to real time.
+ * </p>
+ */
+public class SimulatedLab extends LearningEnvironment {
+
+    /**
+     * The tick period of the Node-RED simulator (the "Repeat" inject node)
+     */
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+
+    /**
+     * The hours that pass on every tick of the simulator
+     */
+    private static final double HOURS_PER_TICK = 0.1;
+
+    private static final Logger LOGGER = Logger.getLogger(SimulatedLab.class.getName());
+
+    private final Random random;
+    private final long tickMillis;
+
+    /**
+     * The current state of the lab, formed as in {@link Lab#getCurrentState()}
+     */
+    private final List<Integer> currentState = Arrays.asList(new Integer[7]);
+
+    /**
+     * The axis values of the current state, as encoded by the state codec
+     */
+    private final int[] currentValues = new int[7];
+
+    // the flow variables of the simulator
+    private double z1Level;
+    private double z2Level;
+    private boolean z1Light;
+    private boolean z2Light;
+    private boolean z1Blinds;
+    private boolean z2Blinds;
+    private double sunshine;
+    private int totalEnergyCost;
+    private int energyCost;
+    private double hour;
+
+    // the simulated clock
+    private long clockMillis;
+    private long nextTickMillis;
+
+    /**
+     * Returns true if the state axes of the simulated lab are the given axes, e.g. those
+     * that a {@link Lab} derived from its TD, so that states and Q values learned against
+     * the simulated lab apply to the lab
+     *
+     * @param axes the state axes
+     * @return true if the axes have the semantic types and values of the simulated axes, in their order
+     */
+    public static boolean hasStateAxes(List<StateAxis> axes) {
+        if (axes.size() != Lab.LAB_AXES.size()) {
+            return false;
+        }
+        for (int axis = 0; axis < axes.size(); axis++) {
+            StateAxis labAxis = Lab.LAB_AXES.get(axis);
+            if (!labAxis.getSemanticType().equals(axes.get(axis).getSemanticType())
+                    || labAxis.getRadix() != axes.get(axis).getRadix()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A {@link SimulatedLab} instance with a random seed and the tick period of the
+     * Node-RED simulator
+     */
+    public SimulatedLab() {
+        this(new Random().nextLong(), DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * A {@link SimulatedLab} instance is constructed based on a seed for the
+     * randomness of the sunshine and a tick period of its simulated clock
+     *
+     * @param seed       the seed of the random number generator of the simulator
+     * @param tickMillis the simulated time between two updates of the environment
+     */
+    public SimulatedLab(long seed, long tickMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("The tick period must be positive: " + tickMillis);
+        }
+        this.random = new Random(seed);
+        this.tickMillis = tickMillis;
+
+        initializeStateSpace(Lab.LAB_AXES);
+        createActionSpace();
+        LOGGER.fine("The simulated lab has a state space of n=" + stateSpace.size()
+                + " and an action space of m=" + actionSpace.size());
+
+        this.nextTickMillis = tickMillis;
+        readCurrentState();
+    }
+
+    /**
+     * {@link LearningEnvironment#getCompatibleStates(List)}
+     */
+    @Override
+    public List<Integer> getCompatibleStates(List<Object> stateDescription) {
+        return getStateIndex().getCompatibleStates(stateDescription);
+    }
+
+    /**
+     * {@link LearningEnvironment#readCurrentState()}
+     */
+    @Override
+    public int readCurrentState() {
+        currentValues[0] = Lab.discretizeLightLevel(z1Level);
+        currentValues[1] = Lab.discretizeLightLevel(z2Level);
+        currentValues[2] = z1Light ? 1 : 0;
+        currentValues[3] = z2Light ? 1 : 0;
+        currentValues[4] = z1Blinds ? 1 : 0;
+        currentValues[5] = z2Blinds ? 1 : 0;
+        currentValues[6] = Lab.discretizeSunshine(sunshine);
+
+        for (int axis = 0; axis < currentValues.length; axis++) {
+            currentState.set(axis, currentValues[axis]);
+        }
+        return stateCodec.encode(currentValues);
+    }
+
+    /**
+     * {@link LearningEnvironment#getObservation(double[])}
+     */
+    @Override
+    public void getObservation(double[] observation) {
+        observation[0] = z1Level;
+        observation[1] = z2Level;
+        observation[2] = z1Light ? 1 : 0;
+        observation[3] = z2Light ? 1 : 0;
+        observation[4] = z1Blinds ? 1 : 0;
+        observation[5] = z2Blinds ? 1 : 0;
+        observation[6] = sunshine;
+    }
+
+    /**
+     * {@link LearningEnvironment#getApplicableActions(int)}
+     */
+    @Override
+    public List<Integer> getApplicableActions(int state) {
+
+        List<Integer> applicableActions = new ArrayList<>();
+
+        for (int action : getApplicableActionArray(state)) {
+            applicableActions.add(action);
+        }
+
+        return applicableActions;
+    }
+
+    /**
+     * {@link LearningEnvironment#performAction(int)}
+     * <p>
+     * Mirrors the "Update action" node of the simulator.
+     * </p>
+     */
+    @Override
+    public void performAction(int action) {
+        Action a = actionSpace.get(action);
+        boolean value = (Boolean) a.getPayload()[0];
+
+        switch (a.getActionTag()) {
+            case "http://example.org/was#SetZ1Light":
+                if (!z1Light && value) {
+                    energyCost = 100;
+                }
+                z1Light = value;
+                break;
+            case "http://example.org/was#SetZ2Light":
+                if (!z2Light && value) {
+                    energyCost = 100;
+                }
+                z2Light = value;
+                break;
+            case "http://example.org/was#SetZ1Blinds":
+                if (!z1Blinds && value) {
+                    energyCost = 5;
+                }
+                z1Blinds = value;
+                break;
+            case "http://example.org/was#SetZ2Blinds":
+                if (!z2Blinds && value) {
+                    energyCost = 5;
+                }
+                z2Blinds = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown action: " + a.getActionTag());
+        }
+    }
+
+    /**
+     * {@link LearningEnvironment#resetTo(int)}
+     * <p>
+     * Assigns the actuators of the target state outright, without an energy cost,
+     * and updates the light levels with the current sunshine.
+     * </p>
+     */
+    @Override
+    public int resetTo(int targetState) {
+        z1Light = stateCodec.getValue(targetState, 2) == 1;
+        z2Light = stateCodec.getValue(targetState, 3) == 1;
+        z1Blinds = stateCodec.getValue(targetState, 4) == 1;
+        z2Blinds = stateCodec.getValue(targetState, 5) == 1;
+        updateLightLevels(sunshine);
+        return readCurrentState();
+    }
+
+    /**
+     * {@link LearningEnvironment#getCurrentState()}
+     */
+    @Override
+    public List<Integer> getCurrentState() {
+        return this.currentState;
+    }
+
+    /**
+     * Advances the simulated clock by the given time and runs every tick of the
+     * simulator that falls into it. Returns immediately.
+     */
+    @Override
+    public void elapse(long millis) {
+        clockMillis += millis;
+        while (clockMillis >= nextTickMillis) {
+            tick();
+            nextTickMillis += tickMillis;
+        }
+    }
+
+    /**
+     * {@link LearningEnvironment#currentTimeMillis()}
+     */
+    @Override
+    protected long currentTimeMillis() {
+        return clockMillis;
+    }
+
+    /**
+     * Returns the simulated time that has passed since the construction of the lab
+     *
+     * @return the simulated time in milliseconds
+     */
+    public long getClockMillis() {
+        return clockMillis;
+    }
+
+    /**
+     * Returns the hour of the simulated day
+     *
+     * @return the hour
+     */
+    public double getHour() {
+        return hour;
+    }
+
+    /**
+     * Returns the energy cost that has been accumulated by the lights
+     *
+     * @return the total energy cost
+     */
+    public int getTotalEnergyCost() {
+        return totalEnergyCost;
+    }
+
+    /**
+     * Returns the cost of the last actuator that has been switched on
+     *
+     * @return the energy cost
+     */
+    public int getEnergyCost() {
+        return energyCost;
+    }
+
+    /**
+     * Mirrors the "Update environment" node of the simulator. As in the simulator,
+     * the light levels are computed with the sunshine of the previous tick.
+     */
+    private void tick() {
+        double sun = sunshine;
+
+        if (hour >= 24) {
+            hour = 0;
+        }
+        hour += HOURS_PER_TICK;
+
+        // somewhat fixed sunshine
+        sunshine = 600 + 50 * random.nextDouble();
+
+        totalEnergyCost += z1Light ? 1 : 0;
+        totalEnergyCost += z2Light ? 1 : 0;
+
+        updateLightLevels(sun);
+    }
+
+    private void updateLightLevels(double sun) {
+        double z1 = 0;
+        z1 += z1Light ? 300 : 0;
+        z1 += z2Light ? 50 : 0;
+        z1 += z1Blinds ? sun * 0.5 : 0;
+        z1 += z2Blinds ? sun * 0.25 : 0;
+
+        double z2 = 0;
+        z2 += z1Light ? 50 : 0;
+        z2 += z2Light ? 300 : 0;
+        z2 += z1Blinds ? sun * 0.25 : 0;
+        z2 += z2Blinds ? sun * 0.50 : 0;
+
+        z1Level = z1;
+        z2Level = z2;
+    }
+
+    /**
+     * Creates the action space of the simulated lab, with the same action keys as
+     * the action space of a {@link Lab}
+     */
+    private void createActionSpace() {
+        this.affordanceTypes = Lab.AFFORDANCE_TYPES;
+
+        for (String affType : affordanceTypes) {
+            String propName = affType.substring(affType.indexOf("#Set") + 4);
+            int axis = indexOfStateAxis(affType.replace("#Set", "#"));
+
+            for (boolean propValue : Arrays.asList(false, true)) {
+                Action action = new Action(affType, new Object[]{propName}, new Object[]{propValue}, null);
+                action.setApplicableOn(axis, propValue ? 0 : 1);
+                actionSpace.put(actionSpace.size(), action);
+            }
+        }
+        compileApplicableActions();
+    }
+}
@@ -0,0 +1,108 @@
+package tools;
+
+import java.util.*;
+import java.util.function.DoubleToIntFunction;
+
+/**
+ * An axis of the state space of a {@link LearningEnvironment}, which corresponds to a
+ * property of the status of the environment, e.g. the status of the lights in Zone 1.
+ *
+ * <p> The values of the property are mapped to the values 0 to radix - 1 of the axis:
+ * <ul>
+ * <li> the values false and true of a boolean property to 0 and 1
+ * <li> the values of a number property to levels, e.g. lux values to the light levels 0 to 3
+ * </ul>
+ * Each value of the axis is described by the value that agents use in state descriptions,
+ * e.g. false and true, or the level.
+ * </p>
+ */
+public final class StateAxis {
+
+    private final String semanticType;
+    private final List<Object> values;
+    private final DoubleToIntFunction discretizer;
+
+    private StateAxis(String semanticType, List<Object> values, DoubleToIntFunction discretizer) {
+        this.semanticType = semanticType;
+        this.values = Collections.unmodifiableList(values);
+        this.discretizer = discretizer;
+    }
+
+    /**
+     * Creates an axis for a boolean property
+     *
+     * @param semanticType the semantic type of the property, e.g. "http://example.org/was#Z1Light"
+     * @return the axis, with the values false and true
+     */
+    public static StateAxis booleanAxis(String semanticType) {
+        return new StateAxis(semanticType, Arrays.asList(false, true), null);
+    }
+
+    /**
+     * Creates an axis for a number property whose values are discretized to levels
+     *
+     * @param semanticType the semantic type of the property, e.g. "http://example.org/was#Z1Level"
+     * @param levels       the number of levels
+     * @param discretizer  maps a value of the property to a level in [0, levels)
+     * @return the axis, with the levels 0 to levels - 1
+     */
+    public static StateAxis levelAxis(String semanticType, int levels, DoubleToIntFunction discretizer) {
+        List<Object> values = new ArrayList<>();
+        for (int level = 0; level < levels; level++) {
+            values.add(level);
+        }
+        return new StateAxis(semanticType, values, discretizer);
+    }
+
+    public String getSemanticType() {
+        return semanticType;
+    }
+
+    /**
+     * Returns the number of values of the axis
+     */
+    public int getRadix() {
+        return values.size();
+    }
+
+    /**
+     * Returns the descriptions of the values of the axis, e.g. [false, true]
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    public boolean isBoolean() {
+        return discretizer == null;
+    }
+
+    /**
+     * Maps a value of the property, as read from the status of the environment, to a
+     * value of the axis
+     *
+     * @param value the value of the property, e.g. true or 120.5
+     * @return the value of the axis
+     */
+    public int discretize(Object value) {
+        if (discretizer == null) {
+            return (Boolean) value ? 1 : 0;
+        }
+        int level = discretizer.applyAsInt(((Number) value).doubleValue());
+        return Math.max(0, Math.min(values.size() - 1, level));
+    }
+
+    /**
+     * Returns the value of the axis that is described by the given description
+     *
+     * @param description the description, e.g. true
+     * @return the value of the axis, or -1 if no value has the description
+     */
+    public int indexOf(Object description) {
+        return values.indexOf(description);
+    }
+
+    @Override
+    public String toString() {
+        return semanticType + values;
+    }
+}
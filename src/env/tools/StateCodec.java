@@ -0,0 +1,144 @@
+package tools;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes state descriptions of a {@link LearningEnvironment} to dense integer values
+ * and decodes them back, based on the number of values of each state axis.
+ *
+ * <p> A state is encoded as a mixed-radix number whose first axis is the most
+ * significant one, e.g. with the axis cardinalities [4,4,2,2,2,2,4] of the lab, the
+ * state [0,0,0,0,0,0,1] is encoded as 1 and the state [0,1,0,0,0,0,0] as 64. This is
+ * the same order in which the cartesian product of the substates enumerates the
+ * state space, so the encoded value is the position of the state in the state space.
+ * </p>
+ */
+public final class StateCodec {
+
+    private final int[] radices;
+    private final int[] strides;
+    private final int stateCount;
+
+    /**
+     * A {@link StateCodec} instance is constructed based on the number of values of
+     * each state axis
+     *
+     * @param radices the number of values of each state axis
+     */
+    public StateCodec(int... radices) {
+        this.radices = radices.clone();
+        this.strides = new int[radices.length];
+
+        long count = 1;
+        for (int axis = radices.length - 1; axis >= 0; axis--) {
+            if (radices[axis] <= 0) {
+                throw new IllegalArgumentException("Axis " + axis + " must have at least one value");
+            }
+            strides[axis] = (int) count;
+            count *= radices[axis];
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The state space is too large: " + Arrays.toString(radices));
+            }
+        }
+        this.stateCount = (int) count;
+    }
+
+    /**
+     * Returns the number of state axes
+     *
+     * @return the number of axes
+     */
+    public int getAxisCount() {
+        return radices.length;
+    }
+
+    /**
+     * Returns the number of values of a state axis
+     *
+     * @param axis the state axis
+     * @return the number of values
+     */
+    public int getRadix(int axis) {
+        return radices[axis];
+    }
+
+    /**
+     * Returns the number of states that can be encoded
+     *
+     * @return the size of the state space
+     */
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * Encodes a state description, e.g. [0,1,0,1,0,0,2]
+     *
+     * @param values the value of each state axis
+     * @return the encoded state
+     */
+    public int encode(int[] values) {
+        int state = 0;
+        for (int axis = 0; axis < radices.length; axis++) {
+            state += checkValue(axis, values[axis]) * strides[axis];
+        }
+        return state;
+    }
+
+    /**
+     * Encodes a state description, e.g. [0,1,0,1,0,0,2]
+     *
+     * @param values the value of each state axis
+     * @return the encoded state
+     */
+    public int encode(List<Integer> values) {
+        int state = 0;
+        for (int axis = 0; axis < radices.length; axis++) {
+            state += checkValue(axis, values.get(axis)) * strides[axis];
+        }
+        return state;
+    }
+
+    /**
+     * Decodes a state into the given array of axis values
+     *
+     * @param state  the encoded state
+     * @param values the array that receives the value of each state axis
+     */
+    public void decode(int state, int[] values) {
+        for (int axis = 0; axis < radices.length; axis++) {
+            values[axis] = (state / strides[axis]) % radices[axis];
+        }
+    }
+
+    /**
+     * Returns the value of a single axis of an encoded state
+     *
+     * @param state the encoded state
+     * @param axis  the state axis
+     * @return the value of the axis
+     */
+    public int getValue(int state, int axis) {
+        return (state / strides[axis]) % radices[axis];
+    }
+
+    /**
+     * Returns the encoded state that results from setting a single axis of an encoded state
+     *
+     * @param state the encoded state
+     * @param axis  the state axis
+     * @param value the new value of the axis
+     * @return the resulting encoded state
+     */
+    public int withValue(int state, int axis, int value) {
+        return state + (checkValue(axis, value) - getValue(state, axis)) * strides[axis];
+    }
+
+    private int checkValue(int axis, int value) {
+        if (value < 0 || value >= radices[axis]) {
+            throw new IllegalArgumentException("Value " + value + " is out of range for axis " + axis);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,224 @@
+package tools;
+
+import java.util.*;
+
+/**
+ * An inverted index of a state space, which finds the states that are compatible to a
+ * substate description (see {@link LearningEnvironment#getCompatibleStates(List)}).
+ *
+ * <p> The index keeps one bitset of the encoded states per value of each state axis,
+ * e.g. the states whose z1Light is true. A substate description is compatible to a state
+ * if it matches the consecutive axis values of the state at some axis offset, so the
+ * compatible states are found by intersecting the bitsets of the described values at
+ * each offset, and by joining the results of all offsets.
+ * </p>
+ *
+ * <p> State spaces of more than {@link #MAX_INDEXED_STATES} states are not indexed, as the
+ * bitsets take memory in proportion to the state space. Their compatible states are
+ * enumerated with the state codec instead: the described axes are fixed to the described
+ * values at each offset, and the other axes take all their values.
+ * </p>
+ *
+ * <p> The index is immutable once constructed, so it can be queried by several threads.
+ * </p>
+ */
+public final class StateIndex {
+
+    /**
+     * The largest state space whose states are indexed by bitsets
+     */
+    static final int MAX_INDEXED_STATES = 1 << 20;
+
+    private final StateCodec stateCodec;
+    private final int stateCount;
+    private final List<List<Object>> axisValues;
+    private final List<List<BitSet>> axisStates; // null if the state space is not indexed
+
+    /**
+     * A {@link StateIndex} instance is constructed based on the codec of the state space
+     * and on the values that describe each value of each state axis
+     *
+     * @param stateCodec the codec of the state space
+     * @param axisValues the descriptions of the values of each state axis, e.g. false and
+     *                   true for the values 0 and 1 of z1Light
+     */
+    public StateIndex(StateCodec stateCodec, List<List<Object>> axisValues) {
+        if (axisValues.size() != stateCodec.getAxisCount()) {
+            throw new IllegalArgumentException("Expected the values of " + stateCodec.getAxisCount()
+                    + " axes, got " + axisValues.size());
+        }
+        this.stateCodec = stateCodec;
+        this.stateCount = stateCodec.getStateCount();
+        this.axisValues = new ArrayList<>();
+        this.axisStates = stateCount <= MAX_INDEXED_STATES ? new ArrayList<>() : null;
+
+        for (int axis = 0; axis < stateCodec.getAxisCount(); axis++) {
+            if (axisValues.get(axis).size() != stateCodec.getRadix(axis)) {
+                throw new IllegalArgumentException("Expected " + stateCodec.getRadix(axis)
+                        + " values of axis " + axis + ", got " + axisValues.get(axis).size());
+            }
+            this.axisValues.add(Collections.unmodifiableList(new ArrayList<>(axisValues.get(axis))));
+            if (axisStates != null) {
+                List<BitSet> states = new ArrayList<>();
+                for (int value = 0; value < stateCodec.getRadix(axis); value++) {
+                    states.add(new BitSet(stateCount));
+                }
+                this.axisStates.add(states);
+            }
+        }
+
+        if (axisStates == null) {
+            return;
+        }
+        int[] values = new int[stateCodec.getAxisCount()];
+        for (int state = 0; state < stateCount; state++) {
+            stateCodec.decode(state, values);
+            for (int axis = 0; axis < values.length; axis++) {
+                axisStates.get(axis).get(values[axis]).set(state);
+            }
+        }
+    }
+
+    /**
+     * Returns the states that are compatible to a substate description, in ascending order
+     *
+     * @param stateDescription the description of the substate, e.g. [2,3] or [true,false]
+     * @return the encoded states
+     */
+    public List<Integer> getCompatibleStates(List<?> stateDescription) {
+        if (axisStates == null) {
+            return enumerate(stateDescription);
+        }
+        BitSet compatibleStates = match(stateDescription);
+
+        List<Integer> states = new ArrayList<>(compatibleStates.cardinality());
+        for (int state = compatibleStates.nextSetBit(0); state >= 0; state = compatibleStates.nextSetBit(state + 1)) {
+            states.add(state);
+        }
+        return states;
+    }
+
+    /**
+     * Returns the set of the states that are compatible to a substate description
+     *
+     * @param stateDescription the description of the substate, e.g. [2,3] or [true,false]
+     * @return the encoded states, as a new bitset
+     */
+    public BitSet match(List<?> stateDescription) {
+        BitSet compatibleStates = new BitSet(stateCount);
+        if (stateDescription.isEmpty()) {
+            // the empty description is compatible to every state
+            compatibleStates.set(0, stateCount);
+            return compatibleStates;
+        }
+        if (axisStates == null) {
+            for (int state : enumerate(stateDescription)) {
+                compatibleStates.set(state);
+            }
+            return compatibleStates;
+        }
+
+        for (int offset = 0; offset + stateDescription.size() <= axisStates.size(); offset++) {
+            BitSet matches = null;
+            for (int i = 0; i < stateDescription.size() && (matches == null || !matches.isEmpty()); i++) {
+                BitSet states = getStates(offset + i, stateDescription.get(i));
+                if (matches == null) {
+                    matches = states;
+                } else {
+                    matches.and(states);
+                }
+            }
+            compatibleStates.or(matches);
+        }
+        return compatibleStates;
+    }
+
+    /**
+     * Enumerates the states that are compatible to a substate description with the state
+     * codec, by the values of the axes that are not described at each offset
+     */
+    private List<Integer> enumerate(List<?> stateDescription) {
+        int axisCount = axisValues.size();
+        int[] states = new int[16];
+        int count = 0;
+
+        for (int offset = 0; offset + stateDescription.size() <= axisCount; offset++) {
+            // the values that each axis can take at this offset
+            int[][] candidates = new int[axisCount][];
+            boolean matches = true;
+            for (int axis = 0; axis < axisCount && matches; axis++) {
+                int i = axis - offset;
+                candidates[axis] = i >= 0 && i < stateDescription.size()
+                        ? getValues(axis, stateDescription.get(i)) : getValues(axis);
+                matches = candidates[axis].length > 0;
+            }
+            if (!matches) {
+                continue;
+            }
+
+            // the last axis varies fastest, so that the states are enumerated in ascending order
+            int[] positions = new int[axisCount];
+            int[] values = new int[axisCount];
+            for (int axis = axisCount - 1; axis >= 0; ) {
+                for (int a = 0; a < axisCount; a++) {
+                    values[a] = candidates[a][positions[a]];
+                }
+                if (count == states.length) {
+                    states = Arrays.copyOf(states, states.length * 2);
+                }
+                states[count++] = stateCodec.encode(values);
+
+                for (axis = axisCount - 1; axis >= 0 && ++positions[axis] == candidates[axis].length; axis--) {
+                    positions[axis] = 0;
+                }
+            }
+            if (offset == 0 && stateDescription.isEmpty()) {
+                break;
+            }
+        }
+
+        // the states of several offsets are joined
+        Arrays.sort(states, 0, count);
+        List<Integer> compatibleStates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || states[i] != states[i - 1]) {
+                compatibleStates.add(states[i]);
+            }
+        }
+        return compatibleStates;
+    }
+
+    /* The values of an axis that are described by a description */
+    private int[] getValues(int axis, Object description) {
+        List<Object> values = axisValues.get(axis);
+        int[] described = new int[values.size()];
+        int count = 0;
+        for (int value = 0; value < values.size(); value++) {
+            if (Objects.equals(description, values.get(value))) {
+                described[count++] = value;
+            }
+        }
+        return Arrays.copyOf(described, count);
+    }
+
+    /* All values of an axis */
+    private int[] getValues(int axis) {
+        int[] values = new int[axisValues.get(axis).size()];
+        for (int value = 0; value < values.length; value++) {
+            values[value] = value;
+        }
+        return values;
+    }
+
+    /* The states in which an axis has a described value, as a new bitset */
+    private BitSet getStates(int axis, Object description) {
+        BitSet states = new BitSet(stateCount);
+        List<Object> values = axisValues.get(axis);
+        for (int value = 0; value < values.size(); value++) {
+            if (Objects.equals(description, values.get(value))) {
+                states.or(axisStates.get(axis).get(value));
+            }
+        }
+        return states;
+    }
+}
@@ -0,0 +1,108 @@
+package tools;
+
+/**
+ * Maps continuous observations (e.g. lux values) and an action to the features of a
+ * linear approximation of Q values, by tile coding with hashing.
+ *
+ * <p> Each of the {@link #getTilings()} tilings partitions the continuous dimensions of
+ * an observation into tiles of the given width, where the tilings are displaced by
+ * fractions of a tile width, asymmetrically in each dimension. An observation activates
+ * one tile per tiling, so nearby observations share most of their tiles and generalize
+ * to each other, while the overlapping tilings resolve finer differences than a single
+ * grid. Discrete dimensions (e.g. the status of the lights) are not tiled: each of their
+ * values selects other tiles.
+ * </p>
+ *
+ * <p> The tiles of all tilings and actions are hashed into a fixed number of weights, so
+ * that the memory of a learner does not grow with the number of dimensions, e.g. as
+ * sensors or zones are added; rarely visited tiles may share a weight. Encoding does not
+ * allocate, and a tile coder is immutable, so it can be shared by several threads.
+ * </p>
+ */
+public final class TileCoder {
+
+    private final int tilings;
+    private final int mask;
+    private final double[] tileWidths;
+
+    /**
+     * A {@link TileCoder} instance is constructed based on the number of tilings, the
+     * number of weights and the tile width of each dimension of the observations
+     *
+     * @param tilings     the number of tilings, i.e. of active features per observation
+     * @param weightCount the number of weights into which the tiles are hashed, a power of 2
+     * @param tileWidths  the tile width of each dimension, or 0 for a discrete dimension
+     */
+    public TileCoder(int tilings, int weightCount, double... tileWidths) {
+        if (tilings < 1) {
+            throw new IllegalArgumentException("At least one tiling is needed: " + tilings);
+        }
+        if (weightCount < 1 || Integer.bitCount(weightCount) != 1) {
+            throw new IllegalArgumentException("The number of weights must be a power of 2: " + weightCount);
+        }
+        for (double tileWidth : tileWidths) {
+            if (!(tileWidth >= 0)) {
+                throw new IllegalArgumentException("Tile widths cannot be negative: " + tileWidth);
+            }
+        }
+        this.tilings = tilings;
+        this.mask = weightCount - 1;
+        this.tileWidths = tileWidths.clone();
+    }
+
+    public int getTilings() {
+        return tilings;
+    }
+
+    public int getWeightCount() {
+        return mask + 1;
+    }
+
+    public int getDimensionCount() {
+        return tileWidths.length;
+    }
+
+    /**
+     * Returns the tile width of a dimension
+     *
+     * @param dimension the dimension
+     * @return the tile width, or 0 for a discrete dimension
+     */
+    public double getTileWidth(int dimension) {
+        return tileWidths[dimension];
+    }
+
+    /**
+     * Computes the active features of an observation and an action
+     *
+     * @param observation the value of each dimension
+     * @param action      the action
+     * @param features    the array of length {@link #getTilings()} that receives the
+     *                    indexes of the active weights, one per tiling
+     */
+    public void encode(double[] observation, int action, int[] features) {
+        for (int tiling = 0; tiling < tilings; tiling++) {
+            long hash = mix(tiling * 0x9E3779B97F4A7C15L + action);
+
+            for (int dimension = 0; dimension < tileWidths.length; dimension++) {
+                long coordinate;
+                if (tileWidths[dimension] == 0) {
+                    coordinate = (long) Math.floor(observation[dimension]);
+                } else {
+                    // the tiling is displaced by (2 * dimension + 1) / tilings of a tile width
+                    long scaled = (long) Math.floor(observation[dimension] / tileWidths[dimension] * tilings);
+                    coordinate = Math.floorDiv(scaled + (long) tiling * (2 * dimension + 1), tilings);
+                }
+                hash = mix(hash ^ coordinate);
+            }
+            features[tiling] = (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    /* A finalizer of SplitMix64, so that neighbouring tiles get unrelated weights */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
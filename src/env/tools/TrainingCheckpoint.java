@@ -0,0 +1,221 @@
+package tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * The progress of the training of the Q matrices of several goal descriptions, so that a
+ * training can be resumed after the artifact has been restarted.
+ *
+ * <p> For each goal description (e.g. "[2,3]"), the checkpoint keeps the number of
+ * episodes that its Q matrix has been trained for, and the random number generator of
+ * the training, so that a resumed training continues the random sequence instead of
+ * repeating it. The Q matrices themselves are stored by {@link QTableFile}.
+ * </p>
+ *
+ * <p> The progress of a goal is updated by the thread that trains it, and written by
+ * another thread, so all methods are thread-safe. The file is replaced atomically, so
+ * that a crash while writing leaves the previous checkpoint intact.
+ * </p>
+ */
+public final class TrainingCheckpoint {
+
+    private static final int MAGIC = 0x51434B50; // "QCKP"
+    private static final int VERSION = 1;
+
+    private final Map<String, Progress> trainings = new TreeMap<>();
+
+    /**
+     * Starts the progress of a goal from scratch, e.g. because its Q matrix is new
+     *
+     * @param goalKey the goal description, e.g. "[2,3]"
+     * @param random  the random number generator of the training
+     * @return the progress, with no episode trained
+     */
+    public synchronized Progress restart(String goalKey, Random random) {
+        Progress progress = new Progress(random, 0);
+        trainings.put(goalKey, progress);
+        return progress;
+    }
+
+    /**
+     * Returns the progress of a goal that is resumed, or starts it from scratch if the
+     * checkpoint holds no progress of the goal
+     *
+     * @param goalKey the goal description, e.g. "[2,3]"
+     * @param random  the random number generator of the training, if it is started from scratch
+     * @return the progress
+     */
+    public synchronized Progress resume(String goalKey, Random random) {
+        Progress progress = trainings.get(goalKey);
+        return progress == null ? restart(goalKey, random) : progress;
+    }
+
+    public synchronized boolean containsGoal(String goalKey) {
+        return trainings.containsKey(goalKey);
+    }
+
+    /**
+     * Discards the progress of a goal, e.g. because its Q matrix has been computed otherwise
+     *
+     * @param goalKey the goal description, e.g. "[2,3]"
+     */
+    public synchronized void remove(String goalKey) {
+        trainings.remove(goalKey);
+    }
+
+    /**
+     * Returns a copy of the checkpoint, e.g. a snapshot of the progress that is written
+     * while the training goes on. The random number generators are copied with their
+     * current state, so they must not be used while the checkpoint is copied.
+     *
+     * @return the copy
+     */
+    public synchronized TrainingCheckpoint copy() {
+        TrainingCheckpoint copy = new TrainingCheckpoint();
+        try {
+            for (Map.Entry<String, Progress> training : trainings.entrySet()) {
+                Random random = deserialize(serialize(training.getValue().getRandom()), null);
+                copy.trainings.put(training.getKey(), new Progress(random, training.getValue().getEpisodes()));
+            }
+        } catch (IOException e) {
+            // the random number generators are copied in memory
+            throw new UncheckedIOException(e);
+        }
+        return copy;
+    }
+
+    /**
+     * Writes the checkpoint to a file, which is replaced atomically
+     *
+     * @param path the location of the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(trainings.size());
+            for (Map.Entry<String, Progress> training : trainings.entrySet()) {
+                byte[] random = serialize(training.getValue().getRandom());
+                out.writeUTF(training.getKey());
+                out.writeInt(training.getValue().getEpisodes());
+                out.writeInt(random.length);
+                out.write(random);
+            }
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a checkpoint from a file that has been written by {@link #write(Path)}
+     *
+     * @param path the location of the file
+     * @return the checkpoint
+     * @throws IOException if the file cannot be read or is not a checkpoint file
+     */
+    public static TrainingCheckpoint read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported checkpoint file version " + version + ": " + path);
+            }
+
+            TrainingCheckpoint checkpoint = new TrainingCheckpoint();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String goalKey = in.readUTF();
+                int episodes = in.readInt();
+                byte[] random = new byte[in.readInt()];
+                in.readFully(random);
+                if (episodes < 0) {
+                    throw new IOException("Corrupted checkpoint file: " + path);
+                }
+                checkpoint.trainings.put(goalKey, new Progress(deserialize(random, path), episodes));
+            }
+            return checkpoint;
+        }
+    }
+
+    /* The state of a random number generator, which java.util.Random only exposes through serialization */
+    private static byte[] serialize(Random random) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Random deserialize(byte[] random, Path path) throws IOException {
+        try (ObjectInputStream in = new RandomInputStream(new ByteArrayInputStream(random))) {
+            return (Random) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Corrupted checkpoint file: " + path, e);
+        }
+    }
+
+    /* Only deserializes random number generators, as the file could have been tampered with */
+    private static final class RandomInputStream extends ObjectInputStream {
+
+        private RandomInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+            if (!description.getName().equals(Random.class.getName())) {
+                throw new InvalidClassException(description.getName(), "Not a random number generator");
+            }
+            return super.resolveClass(description);
+        }
+    }
+
+    /**
+     * The progress of the training of the Q matrix of a goal
+     */
+    public static final class Progress {
+
+        private final Random random;
+        private volatile int episodes;
+
+        private Progress(Random random, int episodes) {
+            this.random = random;
+            this.episodes = episodes;
+        }
+
+        /**
+         * Returns the random number generator of the training, which is restored when
+         * the training is resumed from a file
+         */
+        public Random getRandom() {
+            return random;
+        }
+
+        /**
+         * Returns the number of episodes that the Q matrix has been trained for
+         */
+        public int getEpisodes() {
+            return episodes;
+        }
+
+        /**
+         * Counts a completed episode; only called by the thread that trains the goal
+         */
+        public void endEpisode() {
+            episodes++;
+        }
+    }
+}
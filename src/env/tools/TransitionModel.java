@@ -0,0 +1,294 @@
+package tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A tabular model of the dynamics of a {@link LearningEnvironment}, learned by
+ * counting the observed outcomes (state, action) -> next state.
+ *
+ * <p> For each state and action, the model keeps the counts of up to
+ * {@link #OUTCOMES} different next states in primitive arrays. If an action has
+ * more outcomes in a state, the rarest outcome is replaced, which is enough for
+ * environments that are mostly deterministic such as the lab. The model does not
+ * depend on any goal, since rewards can be computed from the next state.
+ * </p>
+ *
+ * <p> Only the pairs of a state and an action that have been observed take memory:
+ * they are numbered in the order of their first observation through a
+ * {@link LongIntHashMap}, and the arrays of their outcomes grow with them. The
+ * model thus grows with experience rather than with the size of the state space.
+ * </p>
+ *
+ * <p> All methods are thread-safe, so that the workers that train different goals
+ * can share the model of the same environment.
+ * </p>
+ */
+public final class TransitionModel {
+
+    private static final int MAGIC = 0x544D444C; // "TMDL"
+    private static final int VERSION = 2;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The number of different next states that are kept per state and action
+     */
+    public static final int OUTCOMES = 4;
+
+    private final int stateCount;
+    private final int actionCount;
+    private final LongIntHashMap observations; // the number of each observed pair, by pair
+    private long[] observedPairs; // the observed pairs, in the order of their first observation
+    private int[] nextStates;
+    private int[] counts;
+    private int[] totals;
+    private int observedCount;
+
+    /**
+     * A {@link TransitionModel} instance is constructed based on the size of the
+     * state space and of the action space
+     *
+     * @param stateCount  the number of states
+     * @param actionCount the number of actions
+     */
+    public TransitionModel(int stateCount, int actionCount) {
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        this.observations = new LongIntHashMap(INITIAL_CAPACITY);
+        this.observedPairs = new long[INITIAL_CAPACITY];
+        this.nextStates = new int[INITIAL_CAPACITY * OUTCOMES];
+        this.counts = new int[INITIAL_CAPACITY * OUTCOMES];
+        this.totals = new int[INITIAL_CAPACITY];
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int getActionCount() {
+        return actionCount;
+    }
+
+    /**
+     * Records an observed transition
+     *
+     * @param state     the state in which the action was performed
+     * @param action    the performed action
+     * @param nextState the state that was observed after the action
+     */
+    public synchronized void record(int state, int action, int nextState) {
+        int observation = observations.get(pair(state, action));
+        if (observation == LongIntHashMap.MISSING) {
+            observation = addObservation(pair(state, action));
+        }
+        int base = observation * OUTCOMES;
+
+        // the outcomes of a pair fill the slots from the first one on
+        int slot = -1;
+        int rarest = base;
+        for (int outcome = base; outcome < base + OUTCOMES; outcome++) {
+            if (counts[outcome] == 0 || nextStates[outcome] == nextState) {
+                slot = outcome;
+                break;
+            }
+            if (counts[outcome] < counts[rarest]) {
+                rarest = outcome;
+            }
+        }
+
+        if (slot < 0) {
+            totals[observation] -= counts[rarest];
+            counts[rarest] = 0;
+            slot = rarest;
+        }
+
+        nextStates[slot] = nextState;
+        counts[slot]++;
+        totals[observation]++;
+    }
+
+    /**
+     * Returns a copy of the model, e.g. a snapshot of the observed transitions that is
+     * written while further transitions are recorded
+     *
+     * @return the copy
+     */
+    public synchronized TransitionModel copy() {
+        TransitionModel copy = new TransitionModel(stateCount, actionCount);
+        for (int observation = 0; observation < observedCount; observation++) {
+            copy.addObservation(observedPairs[observation]);
+        }
+        System.arraycopy(nextStates, 0, copy.nextStates, 0, observedCount * OUTCOMES);
+        System.arraycopy(counts, 0, copy.counts, 0, observedCount * OUTCOMES);
+        System.arraycopy(totals, 0, copy.totals, 0, observedCount);
+        return copy;
+    }
+
+    /* Numbers a pair that is observed for the first time */
+    private int addObservation(long pair) {
+        if (observedCount == observedPairs.length) {
+            int capacity = observedPairs.length * 2;
+            observedPairs = Arrays.copyOf(observedPairs, capacity);
+            nextStates = Arrays.copyOf(nextStates, capacity * OUTCOMES);
+            counts = Arrays.copyOf(counts, capacity * OUTCOMES);
+            totals = Arrays.copyOf(totals, capacity);
+        }
+        observedPairs[observedCount] = pair;
+        observations.put(pair, observedCount);
+        return observedCount++;
+    }
+
+    private long pair(int state, int action) {
+        return (long) state * actionCount + action;
+    }
+
+    /**
+     * Returns how often an action has been observed in a state
+     *
+     * @param state  the state
+     * @param action the action
+     * @return the number of observations
+     */
+    public synchronized int getCount(int state, int action) {
+        int observation = observations.get(pair(state, action));
+        return observation == LongIntHashMap.MISSING ? 0 : totals[observation];
+    }
+
+    /**
+     * Returns the number of pairs of a state and an action that have been observed
+     *
+     * @return the number of observed pairs
+     */
+    public synchronized int getObservedCount() {
+        return observedCount;
+    }
+
+    /**
+     * Copies the observed outcomes of an action in a state
+     *
+     * @param state          the state
+     * @param action         the action
+     * @param outcomeStates  the array of length {@link #OUTCOMES} that receives the next states
+     * @param outcomeCounts  the array of length {@link #OUTCOMES} that receives how often each next state was observed
+     * @return the number of copied outcomes, 0 if the action has not been observed in the state
+     */
+    public synchronized int getOutcomes(int state, int action, int[] outcomeStates, int[] outcomeCounts) {
+        int observation = observations.get(pair(state, action));
+        if (observation == LongIntHashMap.MISSING) {
+            return 0;
+        }
+        int base = observation * OUTCOMES;
+        int outcomes = 0;
+        while (outcomes < OUTCOMES && counts[base + outcomes] > 0) {
+            outcomeStates[outcomes] = nextStates[base + outcomes];
+            outcomeCounts[outcomes] = counts[base + outcomes];
+            outcomes++;
+        }
+        return outcomes;
+    }
+
+    /**
+     * Samples a simulated transition: a uniformly chosen pair of a state and an
+     * action that has been observed, and a next state with its observed frequency.
+     *
+     * @param random     the random number generator
+     * @param transition the array of length 3 that receives [state, action, nextState]
+     * @return false if no transition has been observed yet
+     */
+    public synchronized boolean sample(Random random, int[] transition) {
+        if (observedCount == 0) {
+            return false;
+        }
+
+        int observation = random.nextInt(observedCount);
+        int base = observation * OUTCOMES;
+        int remaining = random.nextInt(totals[observation]);
+        int outcome = base;
+        while (remaining >= counts[outcome]) {
+            remaining -= counts[outcome];
+            outcome++;
+        }
+
+        transition[0] = (int) (observedPairs[observation] / actionCount);
+        transition[1] = (int) (observedPairs[observation] % actionCount);
+        transition[2] = nextStates[outcome];
+        return true;
+    }
+
+    /**
+     * Writes the observed outcomes of the model to a file, which is replaced atomically
+     *
+     * @param path the location of the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(stateCount);
+            out.writeInt(actionCount);
+            out.writeInt(observedCount);
+            for (int i = 0; i < observedCount; i++) {
+                out.writeLong(observedPairs[i]);
+                for (int outcome = i * OUTCOMES; outcome < (i + 1) * OUTCOMES; outcome++) {
+                    out.writeInt(nextStates[outcome]);
+                    out.writeInt(counts[outcome]);
+                }
+            }
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads a model from a file that has been written by {@link #write(Path)}, or by
+     * the previous version of the model, which numbered the pairs with ints
+     *
+     * @param path the location of the file
+     * @return the model, with the dimensions that it had when it was written
+     * @throws IOException if the file cannot be read or is not a transition model file
+     */
+    public static TransitionModel read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a transition model file: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != 1) {
+                throw new IOException("Unsupported transition model file version " + version + ": " + path);
+            }
+
+            TransitionModel model = new TransitionModel(in.readInt(), in.readInt());
+            long pairs = (long) model.stateCount * model.actionCount;
+            int observedCount = in.readInt();
+            if (observedCount < 0 || observedCount > pairs) {
+                throw new IOException("Corrupted transition model file: " + path);
+            }
+
+            for (int i = 0; i < observedCount; i++) {
+                long pair = version == 1 ? in.readInt() : in.readLong();
+                if (pair < 0 || pair >= pairs || model.observations.get(pair) != LongIntHashMap.MISSING) {
+                    throw new IOException("Corrupted transition model file: " + path);
+                }
+                int observation = model.addObservation(pair);
+                for (int outcome = observation * OUTCOMES; outcome < (observation + 1) * OUTCOMES; outcome++) {
+                    model.nextStates[outcome] = in.readInt();
+                    model.counts[outcome] = in.readInt();
+                    model.totals[observation] += model.counts[outcome];
+                }
+                if (model.totals[observation] <= 0) {
+                    throw new IOException("Corrupted transition model file: " + path);
+                }
+            }
+            return model;
+        }
+    }
+}
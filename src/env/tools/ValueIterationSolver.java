@@ -0,0 +1,164 @@
+package tools;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Calculates the Q matrix of a goal by synchronous value iteration over a
+ * {@link TransitionModel}, instead of sampling episodes against the environment.
+ *
+ * <p> The rewards and the bootstrapped values follow the Q-learning updates of
+ * {@link QLearner}: reaching a state whose light levels (the first two axes of the
+ * state) match the goal yields the reward, and the value of a state is the maximum
+ * Q value of its applicable actions, but at least 0. Each iteration computes the
+ * Q values of all states from the values of the previous iteration, in parallel
+ * over ranges of states on a fork-join pool. Actions that have not been observed
+ * in a state keep a Q value of 0.
+ * </p>
+ */
+public final class ValueIterationSolver {
+
+    private static final int STATES_PER_TASK = 64; // the size of the state ranges that are not split further
+
+    private final LearningEnvironment env;
+    private final int stateCount;
+    private final int actionCount;
+    private final int[][] applicableActions;
+    private final int[] outcomeStates;
+    private final double[] outcomeProbabilities;
+    private final int[] outcomeCounts;
+
+    /**
+     * A {@link ValueIterationSolver} instance is constructed based on an environment
+     * and on a model of its dynamics. The observed outcomes are copied, so that the
+     * model can be updated while the solver runs.
+     *
+     * @param env        the environment, which provides the applicable actions and the state codec
+     * @param model      the model of the environment
+     * @param stateCount the number of states
+     * @param actionCount the number of actions
+     * @throws IllegalArgumentException if the outcomes of all pairs of a state and an action
+     *                                  do not fit into an array
+     */
+    public ValueIterationSolver(LearningEnvironment env, TransitionModel model, int stateCount, int actionCount) {
+        if ((long) stateCount * actionCount * TransitionModel.OUTCOMES > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The state space is too large for value iteration: "
+                    + stateCount + " states and " + actionCount + " actions");
+        }
+        this.env = env;
+        this.stateCount = stateCount;
+        this.actionCount = actionCount;
+        this.applicableActions = new int[stateCount][];
+        this.outcomeStates = new int[stateCount * actionCount * TransitionModel.OUTCOMES];
+        this.outcomeProbabilities = new double[outcomeStates.length];
+        this.outcomeCounts = new int[stateCount * actionCount];
+
+        int[] counts = new int[TransitionModel.OUTCOMES];
+        int[] states = new int[TransitionModel.OUTCOMES];
+        for (int state = 0; state < stateCount; state++) {
+            applicableActions[state] = env.getApplicableActionArray(state);
+            for (int action = 0; action < actionCount; action++) {
+                int pair = state * actionCount + action;
+                int outcomes = model.getOutcomes(state, action, states, counts);
+                int total = 0;
+                for (int outcome = 0; outcome < outcomes; outcome++) {
+                    total += counts[outcome];
+                }
+                for (int outcome = 0; outcome < outcomes; outcome++) {
+                    outcomeStates[pair * TransitionModel.OUTCOMES + outcome] = states[outcome];
+                    outcomeProbabilities[pair * TransitionModel.OUTCOMES + outcome] = (double) counts[outcome] / total;
+                }
+                outcomeCounts[pair] = outcomes;
+            }
+        }
+    }
+
+    /**
+     * Calculates the Q matrix of a goal
+     *
+     * @param z1            the desired light level of Zone 1
+     * @param z2            the desired light level of Zone 2
+     * @param reward        the reward assigned when reaching the goal state
+     * @param gamma         the discount factor [0,1)
+     * @param tolerance     the largest change of a Q value at which the iteration stops
+     * @param maxIterations the largest number of iterations
+     * @return the Q matrix, indexed by state and action
+     */
+    public double[][] solve(int z1, int z2, int reward, double gamma, double tolerance, int maxIterations) {
+        double[] rewards = new double[stateCount];
+        StateCodec codec = env.getStateCodec();
+        for (int state = 0; state < stateCount; state++) {
+            rewards[state] = codec.getValue(state, 0) == z1 && codec.getValue(state, 1) == z2 ? reward : 0;
+        }
+
+        double[][] qTable = new double[stateCount][actionCount];
+        double[] values = new double[stateCount];
+        double[] nextValues = new double[stateCount];
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            double delta = pool.invoke(new Sweep(qTable, rewards, gamma, values, nextValues, 0, stateCount));
+
+            double[] swap = values;
+            values = nextValues;
+            nextValues = swap;
+
+            if (delta < tolerance) {
+                break;
+            }
+        }
+        return qTable;
+    }
+
+    /* Updates the Q values and the values of a range of states, and returns the largest change of a Q value */
+    private final class Sweep extends RecursiveTask<Double> {
+        private final double[][] qTable;
+        private final double[] rewards;
+        private final double gamma;
+        private final double[] values;
+        private final double[] nextValues;
+        private final int from;
+        private final int to;
+
+        private Sweep(double[][] qTable, double[] rewards, double gamma,
+                      double[] values, double[] nextValues, int from, int to) {
+            this.qTable = qTable;
+            this.rewards = rewards;
+            this.gamma = gamma;
+            this.values = values;
+            this.nextValues = nextValues;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from > STATES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                Sweep left = new Sweep(qTable, rewards, gamma, values, nextValues, from, middle);
+                left.fork();
+                double rightDelta = new Sweep(qTable, rewards, gamma, values, nextValues, middle, to).compute();
+                return Math.max(left.join(), rightDelta);
+            }
+
+            double delta = 0;
+            for (int state = from; state < to; state++) {
+                double value = 0;
+                for (int action : applicableActions[state]) {
+                    int pair = state * actionCount + action;
+                    double q = 0;
+                    for (int outcome = 0; outcome < outcomeCounts[pair]; outcome++) {
+                        int index = pair * TransitionModel.OUTCOMES + outcome;
+                        int nextState = outcomeStates[index];
+                        q += outcomeProbabilities[index] * (rewards[nextState] + gamma * values[nextState]);
+                    }
+                    delta = Math.max(delta, Math.abs(q - qTable[state][action]));
+                    qTable[state][action] = q;
+                    value = Math.max(value, q);
+                }
+                nextValues[state] = value;
+            }
+            return delta;
+        }
+    }
+}
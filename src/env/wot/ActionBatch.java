@@ -0,0 +1,94 @@
+package wot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of actions to invoke on a Thing at once, e.g. for changing several actuators. Actions of
+ * the same affordance that set different properties of an object payload are combined into one
+ * invocation, so that the batch needs as few requests as possible.
+ *
+ * The invocations keep the order in which their first action was added, and the properties of a
+ * combined payload keep the order in which they were added. An action that sets a property that
+ * is already set by every invocation of its affordance starts a new invocation, so no value is
+ * overwritten.
+ */
+public final class ActionBatch {
+  private final List<Invocation> invocations = new ArrayList<>();
+
+  /**
+   * Adds an action to the batch, combining it with the first invocation of the same affordance
+   * whose payload does not set any of its properties.
+   *
+   * @param actionTag The IRI that identifies the action type, or the action's name.
+   * @param tags The IRIs or object property names of the payload, empty if the payload is not an
+   * object.
+   * @param payload The payload of the action.
+   */
+  public void add(String actionTag, Object[] tags, Object[] payload) {
+    for (Invocation invocation : invocations) {
+      if (invocation.canCombine(actionTag, tags)) {
+        invocation.combine(tags, payload);
+        return;
+      }
+    }
+
+    Invocation invocation = new Invocation(actionTag);
+    invocation.combine(tags, payload);
+    invocations.add(invocation);
+  }
+
+  /**
+   * Returns the invocations of the batch, one per request.
+   */
+  public List<Invocation> getInvocations() {
+    return Collections.unmodifiableList(invocations);
+  }
+
+  /**
+   * An invocation of an affordance, with the combined payload of one or more actions.
+   */
+  public static final class Invocation {
+    private final String actionTag;
+    private final List<Object> tags = new ArrayList<>();
+    private final List<Object> payload = new ArrayList<>();
+
+    private Invocation(String actionTag) {
+      this.actionTag = actionTag;
+    }
+
+    public String getActionTag() {
+      return actionTag;
+    }
+
+    public Object[] getTags() {
+      return tags.toArray();
+    }
+
+    public Object[] getPayload() {
+      return payload.toArray();
+    }
+
+    /* Object payloads of the same affordance can be combined if they set different properties. */
+    private boolean canCombine(String actionTag, Object[] tags) {
+      if (!this.actionTag.equals(actionTag) || this.tags.isEmpty() || tags.length == 0) {
+        return false;
+      }
+
+      for (Object tag : tags) {
+        if (this.tags.contains(tag)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private void combine(Object[] tags, Object[] payload) {
+      this.tags.addAll(Arrays.asList(tags));
+      this.payload.addAll(Arrays.asList(payload));
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package wot;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies with a fixed memory footprint, in the style of HdrHistogram.
+ *
+ * Latencies are counted in microseconds: below 16 us in buckets of 1 us, and above in 16 linear
+ * buckets per power of two, so that the percentiles are accurate to 1/16 (6.25%) of the latency.
+ * Recording a latency increments a bucket without locking or allocating, so it can be done for
+ * every request. Summaries are read while latencies are recorded, and may miss the latencies that
+ * are recorded concurrently.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 36; // about 19 hours
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder totalCount = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos The latency in nanoseconds.
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+
+    counts.incrementAndGet(bucketOf(micros));
+    totalCount.increment();
+    totalMicros.add(micros);
+    maxMicros.accumulateAndGet(micros, Math::max);
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   */
+  public long getCount() {
+    return totalCount.sum();
+  }
+
+  /**
+   * Returns a summary with the count, the mean, the percentiles p50 to p99.9, and the maximum.
+   */
+  public LatencySummary summarize() {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      snapshot[bucket] = counts.get(bucket);
+      count += snapshot[bucket];
+    }
+
+    return new LatencySummary(count,
+        count == 0 ? 0 : toMillis(totalMicros.sum()) / count,
+        toMillis(percentileMicros(snapshot, count, 0.5)),
+        toMillis(percentileMicros(snapshot, count, 0.9)),
+        toMillis(percentileMicros(snapshot, count, 0.99)),
+        toMillis(percentileMicros(snapshot, count, 0.999)),
+        toMillis(maxMicros.get()));
+  }
+
+  /**
+   * Discards the recorded latencies.
+   */
+  public void reset() {
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      counts.set(bucket, 0);
+    }
+    totalCount.reset();
+    totalMicros.reset();
+    maxMicros.set(0);
+  }
+
+  private long percentileMicros(long[] snapshot, long count, double fraction) {
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += snapshot[bucket];
+      if (seen >= rank) {
+        // The bucket bound can exceed the largest latency that has been recorded
+        return Math.min(upperBoundOf(bucket), maxMicros.get());
+      }
+    }
+
+    return maxMicros.get();
+  }
+
+  static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+
+  private static double toMillis(long micros) {
+    return micros / 1000.0;
+  }
+
+  /**
+   * The summary of a histogram, which is exposed as composite data through JMX.
+   */
+  public static final class LatencySummary {
+    private final long count;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+    private final double maxMillis;
+
+    @ConstructorProperties({ "count", "meanMillis", "p50Millis", "p90Millis", "p99Millis",
+        "p999Millis", "maxMillis" })
+    public LatencySummary(long count, double meanMillis, double p50Millis, double p90Millis,
+        double p99Millis, double p999Millis, double maxMillis) {
+      this.count = count;
+      this.meanMillis = meanMillis;
+      this.p50Millis = p50Millis;
+      this.p90Millis = p90Millis;
+      this.p99Millis = p99Millis;
+      this.p999Millis = p999Millis;
+      this.maxMillis = maxMillis;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getMeanMillis() {
+      return meanMillis;
+    }
+
+    public double getP50Millis() {
+      return p50Millis;
+    }
+
+    public double getP90Millis() {
+      return p90Millis;
+    }
+
+    public double getP99Millis() {
+      return p99Millis;
+    }
+
+    public double getP999Millis() {
+      return p999Millis;
+    }
+
+    public double getMaxMillis() {
+      return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("n=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms "
+          + "max=%.3fms", count, meanMillis, p50Millis, p90Millis, p99Millis, p999Millis,
+          maxMillis);
+    }
+  }
+}
@@ -0,0 +1,306 @@
+package wot;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
+import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.schemas.ObjectSchema;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+
+/**
+ * A snapshot of the status property of a Thing that is shared by all consumers of the same
+ * W3C WoT Thing Description (TD), e.g. {@link ThingArtifact}s and the Labs used for learning.
+ *
+ * A snapshot is reused while it is younger than the freshness window. Concurrent callers that
+ * find no fresh snapshot share a single in-flight request. Consumers that change the state of
+ * the Thing (e.g. by invoking an action) invalidate the snapshot, so that the next read observes
+ * the change.
+ *
+ * The freshness window defaults to the value of the system property
+ * <code>wot.status.freshnessMillis</code> (250 ms if not set).
+ *
+ * If the service is subscribed to the WebSub notifications of the Thing, the status pushed by
+ * the hub is used without any network call for as long as the subscription is active.
+ */
+public class StatusSnapshotService {
+  public static final String STATUS_TYPE = "https://example.org/was#Status";
+
+  private static final Logger LOGGER = Logger.getLogger(StatusSnapshotService.class.getName());
+  private static final long DEFAULT_FRESHNESS_MILLIS = Long.getLong("wot.status.freshnessMillis", 250);
+  private static final Map<String, StatusSnapshotService> SERVICES = new ConcurrentHashMap<>();
+
+  private final Optional<PropertyAffordance> property;
+  private final List<Consumer<TDHttpResponse>> listeners = new CopyOnWriteArrayList<>();
+  private volatile WebSubSubscriber.Subscription subscription;
+  private volatile long freshnessNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRESHNESS_MILLIS);
+
+  // guarded by this
+  private TDHttpResponse snapshot;
+  private long snapshotNanos;
+  private boolean snapshotPushed;
+  private CompletableFuture<TDHttpResponse> inFlight;
+  private long generation;
+
+  private StatusSnapshotService(ThingDescription td) {
+    this.property = td.getFirstPropertyBySemanticType(STATUS_TYPE);
+  }
+
+  /**
+   * Returns the snapshot service of the Thing described by the TD at the given URL.
+   *
+   * @param url The URL of the TD, which identifies the service.
+   * @param td The TD, used if the service does not exist yet.
+   * @return The shared service.
+   */
+  public static StatusSnapshotService forThing(String url, ThingDescription td) {
+    return SERVICES.computeIfAbsent(url, key -> new StatusSnapshotService(td));
+  }
+
+  /**
+   * Sets the time during which a snapshot is reused.
+   *
+   * @param millis The freshness window in milliseconds; 0 disables the reuse of snapshots, but
+   * concurrent callers still share in-flight requests.
+   */
+  public void setFreshnessMillis(long millis) {
+    this.freshnessNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+  }
+
+  /**
+   * Returns true if the given property is the status property of the Thing. Properties are
+   * compared by their semantic type, as each consumer may have parsed its own copy of the TD.
+   */
+  public boolean isStatusProperty(PropertyAffordance property) {
+    return this.property.isPresent() && property.hasSemanticType(STATUS_TYPE);
+  }
+
+  /**
+   * Returns the status property of the Thing, if the TD has one.
+   */
+  public Optional<PropertyAffordance> getProperty() {
+    return property;
+  }
+
+  /**
+   * Returns a snapshot of the status of the Thing that is not older than the freshness window.
+   *
+   * @return The response of the status read request.
+   * @throws IOException If the status cannot be read.
+   */
+  public TDHttpResponse read() throws IOException {
+    return read(freshnessNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns a snapshot of the status of the Thing that is not older than the given age, or the
+   * status pushed by the hub. Concurrent callers still share in-flight requests.
+   *
+   * @param maxAgeMillis The maximum age of the snapshot in milliseconds.
+   * @return The response of the status read request.
+   * @throws IOException If the status cannot be read.
+   */
+  public TDHttpResponse read(long maxAgeMillis) throws IOException {
+    return read(maxAgeMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private TDHttpResponse read(long maxAge, TimeUnit unit) throws IOException {
+    long maxAgeNanos = unit.toNanos(maxAge);
+    CompletableFuture<TDHttpResponse> request;
+    long requestGeneration;
+    boolean owner = false;
+
+    synchronized (this) {
+      boolean fresh = System.nanoTime() - snapshotNanos <= maxAgeNanos;
+      if (snapshot != null && (fresh || isPushed())) {
+        return snapshot;
+      }
+
+      if (inFlight == null) {
+        inFlight = new CompletableFuture<>();
+        owner = true;
+      }
+
+      request = inFlight;
+      requestGeneration = generation;
+    }
+
+    if (owner) {
+      fetch(request, requestGeneration);
+    }
+
+    try {
+      return request.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading the status", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Subscribes to the WebSub notifications of the Thing, if the subscriber is available (see
+   * {@link WebSubSubscriber}) and the service is not subscribed yet.
+   *
+   * @param hub The URL of the WebSub hub.
+   * @param topic The URL of the topic of the Thing.
+   * @return True if the service is subscribed.
+   * @throws IOException If the hub cannot be reached or rejects the subscription.
+   */
+  public synchronized boolean subscribe(String hub, String topic) throws IOException {
+    if (subscription == null) {
+      Optional<WebSubSubscriber> subscriber = WebSubSubscriber.getInstance();
+
+      if (subscriber.isPresent()) {
+        subscription = subscriber.get().subscribe(hub, topic, this::publish);
+      }
+    }
+
+    return subscription != null;
+  }
+
+  /**
+   * Adds a listener that receives every status pushed by the hub, e.g. for updating observable
+   * properties.
+   */
+  public void addListener(Consumer<TDHttpResponse> listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Consumer<TDHttpResponse> listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Replaces the snapshot with a status pushed by the hub, and passes it to the listeners.
+   * Notifications that do not match the data schema of the status property (e.g. the
+   * <code>functor(args)</code> literals of other events of the Thing) are dropped.
+   *
+   * @param payload The status, with the data schema of the status property.
+   */
+  public void publish(String payload) {
+    BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+    response.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+    TDHttpResponse status = new TDHttpResponse(response);
+
+    if (!isStatus(status)) {
+      LOGGER.fine("Dropping a notification that is not a status: " + payload);
+      return;
+    }
+
+    synchronized (this) {
+      snapshot = status;
+      snapshotNanos = System.nanoTime();
+      snapshotPushed = true;
+      // Requests that are in flight must not overwrite the pushed status
+      generation++;
+    }
+
+    for (Consumer<TDHttpResponse> listener : listeners) {
+      listener.accept(status);
+    }
+  }
+
+  /**
+   * Discards the current snapshot, e.g. after the state of the Thing has been changed. Requests
+   * that are in flight are not shared with later callers anymore.
+   */
+  public synchronized void invalidate() {
+    snapshot = null;
+    inFlight = null;
+    generation++;
+  }
+
+  /*
+   * A status has a value for every property of the data schema of the status property, keyed
+   * by the name or by a semantic type of the property.
+   */
+  private boolean isStatus(TDHttpResponse response) {
+    if (!property.isPresent() || !(property.get().getDataSchema() instanceof ObjectSchema)) {
+      return false;
+    }
+
+    ObjectSchema schema = (ObjectSchema) property.get().getDataSchema();
+    Map<String, Object> status;
+    try {
+      status = response.getPayloadAsObject(schema);
+    } catch (RuntimeException e) {
+      return false;
+    }
+    if (status == null) {
+      return false;
+    }
+
+    for (Map.Entry<String, DataSchema> entry : schema.getProperties().entrySet()) {
+      if (!status.containsKey(entry.getKey())
+          && entry.getValue().getSemanticTypes().stream().noneMatch(status::containsKey)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Pushed snapshots are valid until they are replaced or invalidated. */
+  private boolean isPushed() {
+    return snapshotPushed && subscription != null && subscription.isActive();
+  }
+
+  private void fetch(CompletableFuture<TDHttpResponse> request, long requestGeneration) {
+    long started = System.nanoTime();
+
+    try {
+      if (!property.isPresent()) {
+        throw new IOException("The Thing does not have a property of type " + STATUS_TYPE);
+      }
+
+      Optional<Form> form = property.get().getFirstFormForOperationType(TD.readProperty);
+      if (!form.isPresent()) {
+        throw new IOException("The status property does not have a form for reading it");
+      }
+
+      TDHttpResponse response = ThingHttpClient.getInstance()
+          .execute(new TDHttpRequest(form.get(), TD.readProperty), STATUS_TYPE, TD.readProperty);
+
+      synchronized (this) {
+        if (inFlight == request) {
+          inFlight = null;
+        }
+        if (generation == requestGeneration && response.getStatusCode() >= 200
+            && response.getStatusCode() < 300) {
+          snapshot = response;
+          snapshotNanos = started;
+          snapshotPushed = false;
+        }
+      }
+      request.complete(response);
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        if (inFlight == request) {
+          inFlight = null;
+        }
+      }
+      request.completeExceptionally(e);
+    }
+  }
+}
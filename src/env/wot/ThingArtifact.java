@@ -8,11 +8,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 import org.apache.hc.client5.http.fluent.Request;
 import org.apache.hc.core5.http.Header;
 
 import cartago.Artifact;
+import cartago.IBlockingCmd;
 import cartago.OPERATION;
 import cartago.OpFeedbackParam;
 import ch.unisg.ics.interactions.wot.td.ThingDescription;
@@ -30,6 +35,7 @@ import ch.unisg.ics.interactions.wot.td.security.APIKeySecurityScheme;
 import ch.unisg.ics.interactions.wot.td.security.SecurityScheme;
 import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
 import ch.unisg.ics.interactions.wot.td.vocabularies.WoTSec;
+import wot.LatencyHistogram.LatencySummary;
 
 /**
  * A CArtAgO artifact that can interpret a W3C WoT Thing Description (TD) and exposes the affordances
@@ -45,8 +51,11 @@ public class ThingArtifact extends Artifact {
   private static final String WEBID_PREFIX = "http://hyperagents.org/";
 
   protected ThingDescription td;
+  protected String url;
   protected boolean dryRun;
   private Optional<String> apiKey;
+  private StatusSnapshotService statusSnapshots;
+  private final Consumer<TDHttpResponse> statusListener = this::onStatusNotification;
 
   private static Map<Integer, List> displacements  = new HashMap();
 
@@ -66,6 +75,8 @@ public class ThingArtifact extends Artifact {
   public void init(String url) {
     try {
       td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, url);
+      this.url = url;
+      statusSnapshots = StatusSnapshotService.forThing(url, td);
 
       for (SecurityScheme scheme : td.getSecuritySchemes()) {
         defineObsProperty("securityScheme", scheme.getConfiguration());
@@ -101,7 +112,7 @@ public class ThingArtifact extends Artifact {
    */
   @OPERATION
   public void readProperty(String propertyTag, OpFeedbackParam<Object[]> output) {
-    readProperty(propertyTag, Optional.empty(), output);
+    readProperty(propertyTag, Optional.empty(), output, false);
   }
 
   /**
@@ -115,7 +126,35 @@ public class ThingArtifact extends Artifact {
   @OPERATION
   public void readProperty(String propertyTag, OpFeedbackParam<Object[]> payloadTags,
       OpFeedbackParam<Object[]> output) {
-    readProperty(propertyTag, Optional.of(payloadTags), output);
+    readProperty(propertyTag, Optional.of(payloadTags), output, false);
+  }
+
+  /**
+   * CArtAgO operation for reading a property of a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param propertyTag Either an IRI that identifies the property type, or the property's name.
+   * @param output The read value. Can be a list of one or more primitives, or a nested list of
+   * primitives or arbitrary depth.
+   */
+  @OPERATION
+  public void readPropertyAsync(String propertyTag, OpFeedbackParam<Object[]> output) {
+    readProperty(propertyTag, Optional.empty(), output, true);
+  }
+
+  /**
+   * CArtAgO operation for reading a property of a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param propertyTag Either an IRI that identifies the property type, or the property's name.
+   * @param payloadTags A list of IRIs or object property names (if property is an object schema).
+   * @param output The read value. Can be a list of one or more primitives, or a nested list of
+   * primitives or arbitrary depth.
+   */
+  @OPERATION
+  public void readPropertyAsync(String propertyTag, OpFeedbackParam<Object[]> payloadTags,
+      OpFeedbackParam<Object[]> output) {
+    readProperty(propertyTag, Optional.of(payloadTags), output, true);
   }
 
   /**
@@ -138,14 +177,45 @@ public class ThingArtifact extends Artifact {
    */
   @OPERATION
   public void writeProperty(String propertyTag, Object[] payloadTags, Object[] payload) {
+    writeProperty(propertyTag, payloadTags, payload, false);
+  }
+
+  /**
+   * CArtAgO operation for writing a property of a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param propertyTag Either an IRI that identifies the property type, or the property's name.
+   * @param payload The payload to be issued when writing the property.
+   */
+  @OPERATION
+  public void writePropertyAsync(String propertyTag, Object[] payload) {
+    writeProperty(propertyTag, new Object[0], payload, true);
+  }
+
+  /**
+   * CArtAgO operation for writing a property of a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param propertyTag Either an IRI that identifies the property type, or the property's name.
+   * @param payloadTags A list of IRIs or object property names (if property is an object schema).
+   * @param payload The payload to be issued when writing the property.
+   */
+  @OPERATION
+  public void writePropertyAsync(String propertyTag, Object[] payloadTags, Object[] payload) {
+    writeProperty(propertyTag, payloadTags, payload, true);
+  }
+
+  private void writeProperty(String propertyTag, Object[] payloadTags, Object[] payload,
+      boolean async) {
     validateParameters(propertyTag, payloadTags, payload);
     if (payload.length == 0) {
       failed("The payload used when writing a property cannot be empty.");
     }
 
     PropertyAffordance property = getPropertyOrFail(propertyTag);
-    Optional<TDHttpResponse> response = executePropertyRequest(property, TD.writeProperty,
-        payloadTags, payload);
+    Optional<TDHttpResponse> response = executePropertyRequest(property, propertyTag,
+        TD.writeProperty, payloadTags, payload, async);
+    statusSnapshots.invalidate();
 
     if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
       failed("Status code: " + response.get().getStatusCode());
@@ -177,8 +247,126 @@ public class ThingArtifact extends Artifact {
    */
   @OPERATION
   public void invokeAction(String actionTag, Object[] payloadTags, Object[] payload) {
+    invokeAction(actionTag, payloadTags, payload, false);
+  }
+
+  /**
+   * CArtAgO operation for invoking an action on a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param actionTag Either an IRI that identifies the action type, or the action's name.
+   */
+  @OPERATION
+  public void invokeActionAsync(String actionTag) {
+    invokeAction(actionTag, new Object[0], new Object[0], true);
+  }
+
+  /**
+   * CArtAgO operation for invoking an action on a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param actionTag Either an IRI that identifies the action type, or the action's name.
+   * @param payload The payload to be issued when invoking the action.
+   */
+  @OPERATION
+  public void invokeActionAsync(String actionTag, Object[] payload) {
+    invokeAction(actionTag, new Object[0], payload, true);
+  }
+
+  /**
+   * CArtAgO operation for invoking an action on a Thing without blocking the other operations of
+   * the artifact while the request is in flight.
+   *
+   * @param actionTag Either an IRI that identifies the action type, or the action's name.
+   * @param payloadTags A list of IRIs or object property names (used for object schema payloads).
+   * @param payload The payload to be issued when invoking the action.
+   */
+  @OPERATION
+  public void invokeActionAsync(String actionTag, Object[] payloadTags, Object[] payload) {
+    invokeAction(actionTag, payloadTags, payload, true);
+  }
+
+  private void invokeAction(String actionTag, Object[] payloadTags, Object[] payload,
+      boolean async) {
     validateParameters(actionTag, payloadTags, payload);
 
+    Optional<TDHttpRequest> request = createActionRequest(actionTag, payloadTags, payload);
+
+    if (request.isPresent()) {
+      Optional<TDHttpResponse> response = issueRequest(request.get(), actionTag, TD.invokeAction,
+          async);
+      statusSnapshots.invalidate();
+
+      if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
+        failed("Status code: " + response.get().getStatusCode());
+      }
+    }
+  }
+
+  /**
+   * CArtAgO operation for invoking several actions on a Thing at once, e.g. for changing several
+   * actuators. Actions of the same affordance that set different properties of an object payload
+   * are combined into one request, and the resulting requests are issued concurrently. The
+   * operation completes once all requests have been answered, without blocking the other
+   * operations of the artifact in the meantime.
+   *
+   * @param actionTags A list of IRIs that identify the action types, or the actions' names.
+   * @param payloadTags For each action, a list of IRIs or object property names (used for object
+   * schema payloads). Can be empty if no action uses an object schema payload.
+   * @param payloads For each action, the payload to be issued when invoking the action.
+   */
+  @OPERATION
+  public void invokeActions(Object[] actionTags, Object[] payloadTags, Object[] payloads) {
+    if (actionTags.length != payloads.length
+        || (payloadTags.length > 0 && payloadTags.length != actionTags.length)) {
+      failed("Illegal arguments: the lists of actions, tags and payloads should have equal length.");
+    }
+
+    ActionBatch batch = new ActionBatch();
+
+    for (int i = 0; i < actionTags.length; i++) {
+      String actionTag = actionTags[i].toString();
+      Object[] tags = payloadTags.length > 0 ? (Object[]) payloadTags[i] : new Object[0];
+      Object[] payload = (Object[]) payloads[i];
+      validateParameters(actionTag, tags, payload);
+      batch.add(actionTag, tags, payload);
+    }
+
+    List<TDHttpRequest> requests = new ArrayList<>();
+    List<String> requestTags = new ArrayList<>();
+
+    for (ActionBatch.Invocation invocation : batch.getInvocations()) {
+      Optional<TDHttpRequest> request = createActionRequest(invocation.getActionTag(),
+          invocation.getTags(), invocation.getPayload());
+
+      if (request.isPresent()) {
+        prepareRequest(request.get());
+        log(request.get().toString());
+        requests.add(request.get());
+        requestTags.add(invocation.getActionTag());
+      }
+    }
+
+    if (dryRun || requests.isEmpty()) {
+      return;
+    }
+
+    Optional<List<TDHttpResponse>> responses = awaitResult(() -> executeConcurrently(requests,
+        requestTags));
+    statusSnapshots.invalidate();
+
+    if (responses.isPresent()) {
+      for (TDHttpResponse response : responses.get()) {
+        if (!requestSucceeded(response.getStatusCode())) {
+          failed("Status code: " + response.getStatusCode());
+        }
+      }
+    }
+  }
+
+  /* Creates the request for invoking an action. Fails if the action is unknown. */
+  private Optional<TDHttpRequest> createActionRequest(String actionTag, Object[] payloadTags,
+      Object[] payload) {
     Optional<ActionAffordance> action = td.getFirstActionBySemanticType(actionTag);
 
     if (!action.isPresent()) {
@@ -198,15 +386,12 @@ public class ThingArtifact extends Artifact {
         failed("This type of action does not take any input: " + actionTag);
       }
 
-      Optional<TDHttpResponse> response = executeRequest(TD.invokeAction, form.get(), inputSchema,
-          payloadTags, payload);
-
-      if (response.isPresent() && !requestSucceeded(response.get().getStatusCode())) {
-        failed("Status code: " + response.get().getStatusCode());
-      }
+      return createRequest(TD.invokeAction, form.get(), inputSchema, payloadTags, payload);
     } else {
       failed("Unknown action: " + actionTag);
     }
+
+    return Optional.empty();
   }
 
   /**
@@ -221,6 +406,46 @@ public class ThingArtifact extends Artifact {
     }
   }
 
+  /**
+   * CArtAgO operation that sets the time during which a snapshot of the status of the Thing is
+   * shared by all consumers of its TD.
+   *
+   * @param millis The freshness window in milliseconds (0 to always read the status).
+   */
+  @OPERATION
+  public void setStatusFreshness(int millis) {
+    statusSnapshots.setFreshnessMillis(millis);
+  }
+
+  /**
+   * CArtAgO operation that returns the latencies of the interactions with all Things (also the
+   * interactions of other artifacts, e.g. of a lab that is learned), e.g. for finding slow
+   * actuators.
+   *
+   * @param interactions The interactions, each as the semantic type (or the name) of the affordance
+   * and the operation type, e.g. "http://example.org/was#SetZ1Light invokeAction".
+   * @param latencies For each interaction, the list [count, mean, p50, p90, p99, p99.9, max], where
+   * the latencies are in milliseconds.
+   */
+  @OPERATION
+  public void getLatencies(OpFeedbackParam<Object[]> interactions,
+      OpFeedbackParam<Object[]> latencies) {
+    List<Object> keys = new ArrayList<>();
+    List<Object> summaries = new ArrayList<>();
+
+    for (Map.Entry<String, LatencySummary> latency
+        : ThingLatencies.getInstance().getLatencies().entrySet()) {
+      LatencySummary summary = latency.getValue();
+      keys.add(latency.getKey());
+      summaries.add(new Object[] { summary.getCount(), summary.getMeanMillis(),
+          summary.getP50Millis(), summary.getP90Millis(), summary.getP99Millis(),
+          summary.getP999Millis(), summary.getMaxMillis() });
+    }
+
+    interactions.set(keys.toArray());
+    latencies.set(summaries.toArray());
+  }
+
   /* Set a primitive payload. */
   TDHttpRequest setPrimitivePayload(TDHttpRequest request, DataSchema schema, Object payload) {
     try {
@@ -269,21 +494,31 @@ public class ThingArtifact extends Artifact {
     return request;
   }
 
-  /*@LINK
-  public void onNotification(Notification notification) {
-    log("The state of this ThingArtifact has changed: " + notification.getMessage());
+  /* Updates the status observable property with a status pushed by the WebSub hub. Notifications
+   * arrive on the threads of the callback server, hence the external session. */
+  private void onStatusNotification(TDHttpResponse status) {
+    Optional<PropertyAffordance> property = statusSnapshots.getProperty();
+    if (!property.isPresent() || property.get().getDataSchema().getDatatype() != DataSchema.OBJECT) {
+      return;
+    }
 
-    String obsProp = notification.getMessage();
-    String functor = obsProp.substring(0, obsProp.indexOf("("));
-    String[] params = obsProp.substring(obsProp.indexOf("(") + 1, obsProp.length() - 1)
-        .split(",");
+    OpFeedbackParam<Object[]> tags = new OpFeedbackParam<Object[]>();
+    OpFeedbackParam<Object[]> values = new OpFeedbackParam<Object[]>();
+    readPayloadWithSchema(status, property.get().getDataSchema(), Optional.of(tags), values);
 
-    if (this.hasObsPropertyByTemplate(functor, (Object[]) params)) {
-      this.updateObsProperty(functor, (Object[]) params);
-    } else {
-      this.defineObsProperty(functor, (Object[]) params);
+    beginExternalSession();
+    try {
+      if (getObsProperty("status") == null) {
+        defineObsProperty("status", tags.get(), values.get());
+      } else {
+        updateObsProperty("status", tags.get(), values.get());
+      }
+      endExternalSession(true);
+    } catch (RuntimeException e) {
+      endExternalSession(false);
+      log("Could not update the status: " + e.getMessage());
     }
-  }*/
+  }
 
   /* Registers for WebSub to an Yggdrasil node. This is not a generic implementation, but one
    * specific to Yggdrasil. */
@@ -311,12 +546,37 @@ public class ThingArtifact extends Artifact {
       if (hub.isPresent() && topic.isPresent()) {
         log("Found WebSub links: " + hub.get() + ", " + topic.get());
         defineObsProperty("websub", hub.get(), topic.get());
+        subscribeToStatus(hub.get(), topic.get());
       }
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
+  /* Subscribes to the status pushed by the WebSub hub, which is then observable as
+   * status(Tags, Values) and shared with the other consumers of the TD without polling. */
+  private void subscribeToStatus(String hub, String topic) {
+    if (!statusSnapshots.getProperty().isPresent()) {
+      return;
+    }
+
+    try {
+      if (statusSnapshots.subscribe(hub, topic)) {
+        statusSnapshots.addListener(statusListener);
+        log("Subscribed to the status notifications of " + topic);
+      }
+    } catch (IOException e) {
+      log("Could not subscribe to the status notifications: " + e.getMessage());
+    }
+  }
+
+  @Override
+  protected void dispose() {
+    if (statusSnapshots != null) {
+      statusSnapshots.removeListener(statusListener);
+    }
+  }
+
   /* Matches the entire 2XX class */
   private boolean requestSucceeded(int statusCode) {
     return statusCode >= 200 && statusCode < 300;
@@ -329,10 +589,17 @@ public class ThingArtifact extends Artifact {
   }
 
   private void readProperty(String semanticType, Optional<OpFeedbackParam<Object[]>> tags,
-      OpFeedbackParam<Object[]> output) {
+      OpFeedbackParam<Object[]> output, boolean async) {
     PropertyAffordance property = getPropertyOrFail(semanticType);
-    Optional<TDHttpResponse> response = executePropertyRequest(property, TD.readProperty,
-        new Object[0], new Object[0]);
+    Optional<TDHttpResponse> response;
+
+    // The status is shared with the other consumers of the TD, unless requests are authenticated
+    if (!dryRun && !apiKey.isPresent() && statusSnapshots.isStatusProperty(property)) {
+      response = async ? awaitResult(statusSnapshots::read) : readStatusSnapshot();
+    } else {
+      response = executePropertyRequest(property, semanticType, TD.readProperty, new Object[0],
+          new Object[0], async);
+    }
 
     if (!dryRun) {
       if (!response.isPresent()) {
@@ -347,6 +614,16 @@ public class ThingArtifact extends Artifact {
     }
   }
 
+  private Optional<TDHttpResponse> readStatusSnapshot() {
+    try {
+      return Optional.of(statusSnapshots.read());
+    } catch (IOException e) {
+      failed(e.getMessage());
+    }
+
+    return Optional.empty();
+  }
+
   /* Tries to retrieve a property first by semantic tag, then by name. Fails if none works. */
   private PropertyAffordance getPropertyOrFail(String propertyTag) {
     Optional<PropertyAffordance> property = td.getFirstPropertyBySemanticType(propertyTag);
@@ -367,7 +644,7 @@ public class ThingArtifact extends Artifact {
   // - we cannot use nested objects with the current ThingArtifact API (needs a more elaborated
   // JaCa - WoT bridge)
   @SuppressWarnings("unchecked")
-  private void readPayloadWithSchema(TDHttpResponse response, DataSchema schema,
+  void readPayloadWithSchema(TDHttpResponse response, DataSchema schema,
       Optional<OpFeedbackParam<Object[]>> tags, OpFeedbackParam<Object[]> output) {
 
     switch (schema.getDatatype()) {
@@ -428,7 +705,7 @@ public class ThingArtifact extends Artifact {
   }
 
   private Optional<TDHttpResponse> executePropertyRequest(PropertyAffordance property,
-    String operationType, Object[] tags, Object[] payload) {
+    String propertyTag, String operationType, Object[] tags, Object[] payload, boolean async) {
     Optional<Form> form = property.getFirstFormForOperationType(operationType);
 
     if (!form.isPresent()) {
@@ -438,39 +715,47 @@ public class ThingArtifact extends Artifact {
 
     DataSchema schema = property.getDataSchema();
 
-    return executeRequest(operationType, form.get(), Optional.of(schema), tags, payload);
+    return executeRequest(propertyTag, operationType, form.get(), Optional.of(schema), tags,
+        payload, async);
+  }
+
+  private Optional<TDHttpResponse> executeRequest(String affordanceTag, String operationType,
+      Form form, Optional<DataSchema> schema, Object[] tags, Object[] payload, boolean async) {
+    Optional<TDHttpRequest> request = createRequest(operationType, form, schema, tags, payload);
+
+    return request.isPresent() ? issueRequest(request.get(), affordanceTag, operationType, async)
+        : Optional.empty();
   }
 
-  private Optional<TDHttpResponse> executeRequest(String operationType, Form form,
+  Optional<TDHttpRequest> createRequest(String operationType, Form form,
       Optional<DataSchema> schema, Object[] tags, Object[] payload) {
     if (schema.isPresent() && payload.length > 0) {
       // Request with payload
       if (tags.length > 0) {
-        return executeRequestObjectPayload(operationType, form, schema.get(), tags, payload);
+        return Optional.of(createRequestObjectPayload(operationType, form, schema.get(), tags,
+            payload));
       } else if (payload.length == 1 && !(payload[0] instanceof Object[])) {
-        return executeRequestPrimitivePayload(operationType, form, schema.get(), payload[0]);
+        return Optional.of(createRequestPrimitivePayload(operationType, form, schema.get(),
+            payload[0]));
       } else if (payload.length >= 1) {
-        return executeRequestArrayPayload(operationType, form, schema.get(), payload);
+        return Optional.of(createRequestArrayPayload(operationType, form, schema.get(), payload));
       } else {
         failed("Could not detect the type of payload (primitive, object, or array).");
         return Optional.empty();
       }
     } else {
       // Request without payload
-      TDHttpRequest request = new TDHttpRequest(form, operationType);
-      return issueRequest(request);
+      return Optional.of(new TDHttpRequest(form, operationType));
     }
   }
 
-  private Optional<TDHttpResponse> executeRequestPrimitivePayload(String operationType, Form form,
+  private TDHttpRequest createRequestPrimitivePayload(String operationType, Form form,
       DataSchema schema, Object payload) {
     TDHttpRequest request = new TDHttpRequest(form, operationType);
-    request = setPrimitivePayload(request, schema, payload);
-
-    return issueRequest(request);
+    return setPrimitivePayload(request, schema, payload);
   }
 
-  private Optional<TDHttpResponse> executeRequestObjectPayload(String operationType, Form form,
+  private TDHttpRequest createRequestObjectPayload(String operationType, Form form,
       DataSchema schema, Object[] tags, Object[] payload) {
     if (schema.getDatatype() != DataSchema.OBJECT) {
       failed("TD mismatch: illegal arguments, this affordance uses a data schema of type "
@@ -478,12 +763,10 @@ public class ThingArtifact extends Artifact {
     }
 
     TDHttpRequest request = new TDHttpRequest(form, operationType);
-    request = setObjectPayload(request, schema, tags, payload);
-
-    return issueRequest(request);
+    return setObjectPayload(request, schema, tags, payload);
   }
 
-  private Optional<TDHttpResponse> executeRequestArrayPayload(String operationType, Form form,
+  private TDHttpRequest createRequestArrayPayload(String operationType, Form form,
       DataSchema schema, Object[] payload) {
     if (schema.getDatatype() != DataSchema.ARRAY) {
       failed("TD mismatch: illegal arguments, this affordance uses a data schema of type "
@@ -491,12 +774,11 @@ public class ThingArtifact extends Artifact {
     }
 
     TDHttpRequest request = new TDHttpRequest(form, operationType);
-    request = setArrayPayload(request, schema, payload);
-
-    return issueRequest(request);
+    return setArrayPayload(request, schema, payload);
   }
 
-  private Optional<TDHttpResponse> issueRequest(TDHttpRequest request) {
+  /* Sets the API key (if any) and a header with the id of the operating agent. */
+  private void prepareRequest(TDHttpRequest request) {
     Optional<SecurityScheme> scheme = td.getFirstSecuritySchemeByType(WoTSec.APIKeySecurityScheme);
 
     if (scheme.isPresent() && apiKey.isPresent()) {
@@ -506,14 +788,27 @@ public class ThingArtifact extends Artifact {
     // Set a header with the id of the operating agent
     request.addHeader("X-Agent-WebID", WEBID_PREFIX + getCurrentOpAgentId().getAgentName());
     //log("operating agent: " + getCurrentOpAgentId().getAgentName());
+  }
+
+  /* Executes a request; the tag of the affordance and the operation type key its latency. */
+  private Optional<TDHttpResponse> issueRequest(TDHttpRequest request, String affordanceTag,
+      String operationType, boolean async) {
+    prepareRequest(request);
 
     if (this.dryRun) {
       log(request.toString());
       return Optional.empty();
     } else {
       log(request.toString());
+
+      if (async) {
+        return awaitResult(() -> ThingHttpClient.getInstance().executeAsync(url, request,
+            affordanceTag, operationType).get());
+      }
+
       try {
-        return Optional.of(request.execute());
+        return Optional.of(ThingHttpClient.getInstance().execute(request, affordanceTag,
+            operationType));
       } catch (IOException e) {
         failed(e.getMessage());
       }
@@ -521,4 +816,70 @@ public class ThingArtifact extends Artifact {
 
     return Optional.empty();
   }
+
+  /* Sends the requests concurrently and waits until all of them have been answered. */
+  private List<TDHttpResponse> executeConcurrently(List<TDHttpRequest> requests,
+      List<String> actionTags) throws Exception {
+    List<CompletableFuture<TDHttpResponse>> futures = new ArrayList<>();
+
+    for (int i = 0; i < requests.size(); i++) {
+      futures.add(ThingHttpClient.getInstance().executeAsync(url, requests.get(i),
+          actionTags.get(i), TD.invokeAction));
+    }
+
+    List<TDHttpResponse> responses = new ArrayList<>();
+    Exception error = null;
+
+    for (CompletableFuture<TDHttpResponse> future : futures) {
+      try {
+        responses.add(future.get());
+      } catch (ExecutionException e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+    }
+
+    if (error != null) {
+      throw error;
+    }
+
+    return responses;
+  }
+
+  /* Waits for a result while the other operations of the artifact can be executed. */
+  private <T> Optional<T> awaitResult(Callable<T> call) {
+    AwaitResultCmd<T> cmd = new AwaitResultCmd<>(call);
+    await(cmd);
+
+    if (cmd.error != null) {
+      failed(cmd.error.getMessage() == null ? cmd.error.toString() : cmd.error.getMessage());
+    }
+
+    return Optional.ofNullable(cmd.result);
+  }
+
+  private static class AwaitResultCmd<T> implements IBlockingCmd {
+    private final Callable<T> call;
+    private T result;
+    private Throwable error;
+
+    AwaitResultCmd(Callable<T> call) {
+      this.call = call;
+    }
+
+    @Override
+    public void exec() {
+      try {
+        result = call.call();
+      } catch (ExecutionException e) {
+        error = e.getCause();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        error = e;
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
 }
@@ -0,0 +1,298 @@
+package wot;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpRequest;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+
+/**
+ * A pooled, keep-alive HTTP client that executes the {@link TDHttpRequest}s of all Things, so
+ * that consecutive interactions with a Thing reuse the same connections instead of opening a new
+ * connection per request (as {@link TDHttpRequest#execute()} does). The latency of every request
+ * is recorded in {@link ThingLatencies}.
+ *
+ * The client is configured with the following system properties:
+ * <ul>
+ * <li><code>wot.http.maxConnections</code>: the size of the connection pool (default 32)</li>
+ * <li><code>wot.http.maxConnectionsPerRoute</code>: the connections per host (default 16)</li>
+ * <li><code>wot.http.connectTimeoutMillis</code>: the connection timeout (default 2000 ms)</li>
+ * <li><code>wot.http.responseTimeoutMillis</code>: the response timeout (default 10000 ms)</li>
+ * <li><code>wot.http.idleEvictionMillis</code>: the time after which idle connections are
+ * closed (default 30000 ms)</li>
+ * <li><code>wot.http.maxInFlightPerThing</code>: the asynchronous requests that can be in flight
+ * for the same Thing (default 4); further requests are queued</li>
+ * </ul>
+ */
+public final class ThingHttpClient {
+  private static final ThingHttpClient INSTANCE = new ThingHttpClient();
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient client;
+  private final RequestConfig config;
+  private final Map<String, InFlightLimit> inFlightLimits = new ConcurrentHashMap<>();
+
+  private ThingHttpClient() {
+    connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+        .setMaxConnTotal(Integer.getInteger("wot.http.maxConnections", 32))
+        .setMaxConnPerRoute(Integer.getInteger("wot.http.maxConnectionsPerRoute", 16))
+        .build();
+
+    // Check pooled connections that were idle for a while before reusing them
+    connectionManager.setValidateAfterInactivity(TimeValue.ofSeconds(2));
+
+    Timeout connectTimeout = Timeout.ofMilliseconds(Long.getLong("wot.http.connectTimeoutMillis",
+        2000));
+
+    config = RequestConfig.custom()
+        .setConnectTimeout(connectTimeout)
+        .setConnectionRequestTimeout(connectTimeout)
+        .setResponseTimeout(Timeout.ofMilliseconds(Long.getLong("wot.http.responseTimeoutMillis",
+            10000)))
+        .build();
+
+    client = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(config)
+        .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+        .evictExpiredConnections()
+        .evictIdleConnections(TimeValue.ofMilliseconds(Long.getLong("wot.http.idleEvictionMillis",
+            30000)))
+        .build();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> client.close(CloseMode.GRACEFUL)));
+  }
+
+  /* The async client is only started when the first asynchronous request is executed. */
+  private static final class AsyncClientHolder {
+    private static final CloseableHttpAsyncClient CLIENT = INSTANCE.createAsyncClient();
+  }
+
+  /**
+   * Returns the client that is shared by all Things.
+   */
+  public static ThingHttpClient getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Executes a request over a pooled connection. The connection is returned to the pool once the
+   * response has been read.
+   *
+   * @param request The request, e.g. for reading a property or invoking an action.
+   * @param affordanceType The semantic type (or the name) of the affordance, for the latencies.
+   * @param operationType The operation type of the request, e.g. {@code TD.invokeAction}.
+   * @return The response.
+   * @throws IOException If the request cannot be executed.
+   */
+  public TDHttpResponse execute(TDHttpRequest request, String affordanceType,
+      String operationType) throws IOException {
+    long started = System.nanoTime();
+
+    try {
+      return execute(request);
+    } finally {
+      ThingLatencies.getInstance().record(affordanceType, operationType,
+          System.nanoTime() - started);
+    }
+  }
+
+  private TDHttpResponse execute(TDHttpRequest request) throws IOException {
+    BasicClassicHttpRequest httpRequest;
+
+    try {
+      httpRequest = new BasicClassicHttpRequest(request.getMethod(), new URI(request.getTarget()));
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid target: " + request.getTarget(), e);
+    }
+
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      httpRequest.addHeader(header.getKey(), header.getValue());
+    }
+
+    String payload = request.getPayloadAsString();
+    if (payload != null && !payload.isEmpty()) {
+      Optional<String> contentType = request.getContentType();
+      httpRequest.setEntity(new StringEntity(payload, contentType.isPresent()
+          ? ContentType.parse(contentType.get()) : ContentType.APPLICATION_JSON));
+    }
+
+    // The response handler consumes the entity, which releases the connection back to the pool
+    return client.execute(httpRequest, TDHttpResponse::new);
+  }
+
+  /**
+   * Executes a request without blocking the calling thread. At most
+   * <code>wot.http.maxInFlightPerThing</code> requests are in flight for the same Thing, further
+   * requests are sent when earlier ones complete.
+   *
+   * @param thing The URL of the TD of the Thing, which identifies the Thing.
+   * @param request The request, e.g. for reading a property or invoking an action.
+   * @param affordanceType The semantic type (or the name) of the affordance, for the latencies.
+   * @param operationType The operation type of the request, e.g. {@code TD.invokeAction}.
+   * @return A future that completes with the response, or exceptionally if the request fails.
+   */
+  public CompletableFuture<TDHttpResponse> executeAsync(String thing, TDHttpRequest request,
+      String affordanceType, String operationType) {
+    long started = System.nanoTime();
+    CompletableFuture<TDHttpResponse> future = new CompletableFuture<>();
+
+    // The latency includes the time that the request is queued behind the in-flight limit
+    future.whenComplete((response, error) -> ThingLatencies.getInstance().record(affordanceType,
+        operationType, System.nanoTime() - started));
+
+    InFlightLimit limit = inFlightLimits.computeIfAbsent(thing, key -> new InFlightLimit(
+        Integer.getInteger("wot.http.maxInFlightPerThing", 4)));
+
+    limit.submit(() -> {
+      try {
+        AsyncClientHolder.CLIENT.execute(toSimpleRequest(request),
+            new FutureCallback<SimpleHttpResponse>() {
+              @Override
+              public void completed(SimpleHttpResponse response) {
+                limit.release();
+                future.complete(toTDHttpResponse(response));
+              }
+
+              @Override
+              public void failed(Exception e) {
+                limit.release();
+                future.completeExceptionally(e);
+              }
+
+              @Override
+              public void cancelled() {
+                limit.release();
+                future.cancel(false);
+              }
+            });
+      } catch (IOException | RuntimeException e) {
+        limit.release();
+        future.completeExceptionally(e);
+      }
+    });
+
+    return future;
+  }
+
+  private CloseableHttpAsyncClient createAsyncClient() {
+    CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+        .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(Integer.getInteger("wot.http.maxConnections", 32))
+            .setMaxConnPerRoute(Integer.getInteger("wot.http.maxConnectionsPerRoute", 16))
+            .build())
+        .setDefaultRequestConfig(config)
+        .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+        .evictExpiredConnections()
+        .evictIdleConnections(TimeValue.ofMilliseconds(Long.getLong("wot.http.idleEvictionMillis",
+            30000)))
+        .build();
+
+    asyncClient.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> asyncClient.close(CloseMode.GRACEFUL)));
+
+    return asyncClient;
+  }
+
+  private SimpleHttpRequest toSimpleRequest(TDHttpRequest request) throws IOException {
+    SimpleHttpRequest httpRequest;
+
+    try {
+      httpRequest = new SimpleHttpRequest(request.getMethod(), new URI(request.getTarget()));
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid target: " + request.getTarget(), e);
+    }
+
+    for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+      httpRequest.addHeader(header.getKey(), header.getValue());
+    }
+
+    String payload = request.getPayloadAsString();
+    if (payload != null && !payload.isEmpty()) {
+      Optional<String> contentType = request.getContentType();
+      httpRequest.setBody(payload, contentType.isPresent()
+          ? ContentType.parse(contentType.get()) : ContentType.APPLICATION_JSON);
+    }
+
+    return httpRequest;
+  }
+
+  /* TDHttpResponse can only be created from a classic response, so the async response is copied */
+  private TDHttpResponse toTDHttpResponse(SimpleHttpResponse response) {
+    BasicClassicHttpResponse classicResponse = new BasicClassicHttpResponse(response.getCode());
+
+    for (Header header : response.getHeaders()) {
+      classicResponse.addHeader(header);
+    }
+
+    String body = response.getBodyText();
+    if (body != null) {
+      ContentType contentType = response.getContentType();
+      classicResponse.setEntity(new StringEntity(body, contentType != null ? contentType
+          : ContentType.APPLICATION_JSON));
+    }
+
+    return new TDHttpResponse(classicResponse);
+  }
+
+  /* Bounds the requests in flight for a Thing, without blocking the threads that submit them. */
+  private static final class InFlightLimit {
+    private final Semaphore permits;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+    InFlightLimit(int maxInFlight) {
+      this.permits = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    void submit(Runnable request) {
+      pending.add(request);
+      drain();
+    }
+
+    void release() {
+      permits.release();
+      drain();
+    }
+
+    private void drain() {
+      while (!pending.isEmpty() && permits.tryAcquire()) {
+        Runnable request = pending.poll();
+
+        if (request == null) {
+          permits.release();
+        } else {
+          request.run();
+        }
+      }
+    }
+  }
+}
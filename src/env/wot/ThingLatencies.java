@@ -0,0 +1,78 @@
+package wot;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import wot.LatencyHistogram.LatencySummary;
+
+/**
+ * The latency histograms of the interactions with Things, keyed by the semantic type of the
+ * affordance and by the operation type, e.g.
+ * <code>http://example.org/was#SetZ1Light invokeAction</code>. The latencies are recorded by
+ * {@link ThingHttpClient} for every request, and are exposed through JMX as
+ * <code>wot:type=ThingLatencies</code>.
+ */
+public final class ThingLatencies implements ThingLatenciesMXBean {
+  private static final Logger LOGGER = Logger.getLogger(ThingLatencies.class.getName());
+  private static final ThingLatencies INSTANCE = new ThingLatencies();
+
+  private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  private ThingLatencies() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+          new ObjectName("wot:type=ThingLatencies"));
+    } catch (JMException e) {
+      LOGGER.warning("Could not register the latencies of Thing interactions with JMX: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the latencies that are shared by all Things.
+   */
+  public static ThingLatencies getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records the latency of an interaction.
+   *
+   * @param affordanceType The semantic type (or the name) of the affordance.
+   * @param operationType The operation type, e.g. {@code TD.invokeAction}.
+   * @param nanos The latency in nanoseconds.
+   */
+  public void record(String affordanceType, String operationType, long nanos) {
+    histograms.computeIfAbsent(key(affordanceType, operationType),
+        key -> new LatencyHistogram()).record(nanos);
+  }
+
+  @Override
+  public Map<String, LatencySummary> getLatencies() {
+    Map<String, LatencySummary> summaries = new TreeMap<>();
+
+    for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+      summaries.put(histogram.getKey(), histogram.getValue().summarize());
+    }
+
+    return summaries;
+  }
+
+  @Override
+  public void reset() {
+    for (LatencyHistogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+  }
+
+  /* The operation types are IRIs of the TD vocabulary, only their local name is kept */
+  private static String key(String affordanceType, String operationType) {
+    return affordanceType + " " + operationType.substring(operationType.lastIndexOf('#') + 1);
+  }
+}
@@ -0,0 +1,23 @@
+package wot;
+
+import java.util.Map;
+
+import wot.LatencyHistogram.LatencySummary;
+
+/**
+ * The JMX view of the latencies of the interactions with Things, registered as
+ * <code>wot:type=ThingLatencies</code>.
+ */
+public interface ThingLatenciesMXBean {
+
+  /**
+   * Returns the summaries of the latencies by interaction, e.g. by
+   * <code>http://example.org/was#SetZ1Light invokeAction</code>.
+   */
+  Map<String, LatencySummary> getLatencies();
+
+  /**
+   * Discards the recorded latencies of all interactions.
+   */
+  void reset();
+}
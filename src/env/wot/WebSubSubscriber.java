@@ -0,0 +1,296 @@
+package wot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import org.apache.hc.client5.http.fluent.Form;
+import org.apache.hc.client5.http.fluent.Request;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A WebSub subscriber that receives the notifications of WebSub hubs (e.g. Yggdrasil) on a local
+ * callback server, and passes the content of each notification to the listener of the
+ * subscription.
+ *
+ * Hubs must be able to reach the callback server, so subscriptions are only possible if the
+ * system property <code>wot.websub.callbackUrl</code> is set to the base URL of the callback
+ * server as seen by the hubs (e.g. <code>http://192.168.1.5:8090</code>). The following system
+ * properties are optional:
+ * <ul>
+ * <li><code>wot.websub.port</code>: the local port of the callback server (default: the port of
+ * the callback URL)</li>
+ * <li><code>wot.websub.leaseSeconds</code>: the requested lease of subscriptions (default 3600),
+ * which are renewed before they expire</li>
+ * </ul>
+ */
+public final class WebSubSubscriber {
+  private static final Logger LOGGER = Logger.getLogger(WebSubSubscriber.class.getName());
+  private static final String CALLBACK_PATH = "/websub/";
+
+  private static WebSubSubscriber instance;
+
+  private final String callbackUrl;
+  private final long leaseSeconds;
+  private final HttpServer server;
+  private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+  private final AtomicInteger lastId = new AtomicInteger();
+  private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "websub-renewals");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private WebSubSubscriber(String callbackUrl, int port, long leaseSeconds) throws IOException {
+    this.callbackUrl = callbackUrl.endsWith("/")
+        ? callbackUrl.substring(0, callbackUrl.length() - 1) : callbackUrl;
+    this.leaseSeconds = leaseSeconds;
+
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext(CALLBACK_PATH, this::handle);
+    server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "websub-callbacks");
+      thread.setDaemon(true);
+      return thread;
+    }));
+    server.start();
+
+    LOGGER.info("WebSub callback server listening on port " + server.getAddress().getPort());
+  }
+
+  /**
+   * Returns the subscriber, which is started on first use. The subscriber is not available if
+   * the system property <code>wot.websub.callbackUrl</code> is not set.
+   *
+   * @return The subscriber, if available.
+   * @throws IOException If the callback server cannot be started.
+   */
+  public static synchronized Optional<WebSubSubscriber> getInstance() throws IOException {
+    String callbackUrl = System.getProperty("wot.websub.callbackUrl");
+
+    if (callbackUrl == null || callbackUrl.isEmpty()) {
+      return Optional.empty();
+    }
+
+    if (instance == null) {
+      int port = Integer.getInteger("wot.websub.port", URI.create(callbackUrl).getPort());
+      instance = new WebSubSubscriber(callbackUrl, Math.max(port, 0),
+          Long.getLong("wot.websub.leaseSeconds", 3600));
+    }
+
+    return Optional.of(instance);
+  }
+
+  /**
+   * Sends a subscription request to a hub. The subscription becomes active once the hub has
+   * verified it.
+   *
+   * @param hub The URL of the hub.
+   * @param topic The URL of the topic, e.g. the TD of a Thing.
+   * @param listener Receives the content of every notification.
+   * @return The subscription.
+   * @throws IOException If the hub cannot be reached or rejects the request.
+   */
+  public Subscription subscribe(String hub, String topic, Consumer<String> listener)
+      throws IOException {
+    String id = Integer.toString(lastId.incrementAndGet());
+    Subscription subscription = new Subscription(hub, topic, callbackUrl + CALLBACK_PATH + id,
+        listener);
+
+    subscriptions.put(id, subscription);
+
+    try {
+      sendSubscriptionRequest(subscription);
+    } catch (IOException e) {
+      subscriptions.remove(id);
+      throw e;
+    }
+
+    return subscription;
+  }
+
+  private void sendSubscriptionRequest(Subscription subscription) throws IOException {
+    int statusCode = Request.post(subscription.hub)
+        .bodyForm(Form.form()
+            .add("hub.mode", "subscribe")
+            .add("hub.topic", subscription.topic)
+            .add("hub.callback", subscription.callback)
+            .add("hub.lease_seconds", Long.toString(leaseSeconds))
+            .build())
+        .execute()
+        .returnResponse()
+        .getCode();
+
+    if (statusCode < 200 || statusCode >= 300) {
+      throw new IOException("The hub rejected the subscription to " + subscription.topic
+          + ", status code: " + statusCode);
+    }
+  }
+
+  /* Answers the verification requests and the notifications of the hubs. */
+  private void handle(HttpExchange exchange) throws IOException {
+    String id = exchange.getRequestURI().getPath().substring(CALLBACK_PATH.length());
+    Subscription subscription = subscriptions.get(id);
+
+    try {
+      if (subscription == null) {
+        respond(exchange, 404, "");
+      } else if ("GET".equals(exchange.getRequestMethod())) {
+        verify(exchange, id, subscription);
+      } else if ("POST".equals(exchange.getRequestMethod())) {
+        String content;
+        try (InputStream body = exchange.getRequestBody()) {
+          content = new String(ByteStreams.toByteArray(body), StandardCharsets.UTF_8);
+        }
+
+        respond(exchange, 200, "");
+        subscription.deliver(content);
+      } else {
+        respond(exchange, 405, "");
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void verify(HttpExchange exchange, String id, Subscription subscription)
+      throws IOException {
+    Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+    String mode = query.get("hub.mode");
+
+    if (!subscription.topic.equals(query.get("hub.topic"))) {
+      respond(exchange, 404, "");
+    } else if ("subscribe".equals(mode) && query.containsKey("hub.challenge")) {
+      long lease = query.containsKey("hub.lease_seconds")
+          ? Long.parseLong(query.get("hub.lease_seconds")) : leaseSeconds;
+      subscription.verified(lease);
+
+      // Renew the subscription before the lease expires
+      renewals.schedule(() -> renew(subscription), Math.max(1, lease * 9 / 10), TimeUnit.SECONDS);
+      respond(exchange, 200, query.get("hub.challenge"));
+    } else if ("unsubscribe".equals(mode) && query.containsKey("hub.challenge")) {
+      subscriptions.remove(id);
+      subscription.expire();
+      respond(exchange, 200, query.get("hub.challenge"));
+    } else if ("denied".equals(mode)) {
+      subscriptions.remove(id);
+      subscription.expire();
+      LOGGER.warning("The hub denied the subscription to " + subscription.topic + ": "
+          + query.get("hub.reason"));
+      respond(exchange, 200, "");
+    } else {
+      respond(exchange, 400, "");
+    }
+  }
+
+  private void renew(Subscription subscription) {
+    if (!subscriptions.containsValue(subscription)) {
+      return;
+    }
+
+    try {
+      sendSubscriptionRequest(subscription);
+    } catch (IOException e) {
+      LOGGER.warning("Could not renew the subscription to " + subscription.topic + ": "
+          + e.getMessage());
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+
+    if (bytes.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static Map<String, String> parseQuery(String query)
+      throws UnsupportedEncodingException {
+    Map<String, String> params = new HashMap<>();
+
+    if (query == null) {
+      return params;
+    }
+
+    for (String param : query.split("&")) {
+      int separator = param.indexOf('=');
+      if (separator > 0) {
+        params.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"),
+            URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+      }
+    }
+
+    return params;
+  }
+
+  /**
+   * A subscription to a topic, which is active from the verification by the hub until its lease
+   * expires.
+   */
+  public static final class Subscription {
+    private final String hub;
+    private final String topic;
+    private final String callback;
+    private final Consumer<String> listener;
+    private volatile long expiresAtNanos;
+    private volatile boolean verified;
+
+    private Subscription(String hub, String topic, String callback, Consumer<String> listener) {
+      this.hub = hub;
+      this.topic = topic;
+      this.callback = callback;
+      this.listener = listener;
+    }
+
+    public String getTopic() {
+      return topic;
+    }
+
+    /**
+     * Returns true if notifications are expected for the topic.
+     */
+    public boolean isActive() {
+      return verified && System.nanoTime() - expiresAtNanos < 0;
+    }
+
+    private void verified(long leaseSeconds) {
+      expiresAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(leaseSeconds);
+      verified = true;
+    }
+
+    private void expire() {
+      verified = false;
+    }
+
+    private void deliver(String content) {
+      try {
+        listener.accept(content);
+      } catch (RuntimeException e) {
+        LOGGER.warning("Could not process a notification about " + topic + ": " + e.getMessage());
+      }
+    }
+  }
+}
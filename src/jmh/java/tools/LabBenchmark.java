@@ -0,0 +1,70 @@
+package tools;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the state handling of {@link Lab} against a local {@link LabStub}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabBenchmark {
+
+    private LabStub stub;
+    private Lab lab;
+    private int state;
+
+    /**
+     * A substate description of the goal [2,3], as used for the goals of the agent
+     */
+    private final List<Object> stateDescription = Arrays.<Object>asList(2, 3);
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = LabStub.start();
+        lab = new Lab(stub.getUrl());
+        if (lab.readCurrentState() < 0) {
+            throw new IllegalStateException("The lab cannot read the status of the stub");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        stub.close();
+    }
+
+    /**
+     * Reads the state from the status snapshot within its freshness window
+     */
+    @Benchmark
+    public int readCurrentState() {
+        return lab.readCurrentState();
+    }
+
+    /**
+     * Reads the state with a request to the stub
+     */
+    @Benchmark
+    public int readCurrentStateUncached() {
+        return lab.pollState();
+    }
+
+    @Benchmark
+    public List<Integer> getApplicableActions() {
+        state = (state + 1) % lab.getStateCount();
+        return lab.getApplicableActions(state);
+    }
+
+    @Benchmark
+    public List<Integer> getCompatibleStates() {
+        return lab.getCompatibleStates(stateDescription);
+    }
+}
@@ -0,0 +1,69 @@
+package tools;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Q-learning steps of {@link QLearner} on a Q table of the size of
+ * the lab, against a {@link SimulatedLab} for the applicable actions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QLearnerBenchmark {
+
+    private final Random random = new Random(42);
+    private LearningEnvironment env;
+    private QTableStore qTables;
+    private QLearner.HyperParams params;
+    private int goal;
+    private int stateCount;
+    private int state;
+
+    @Setup
+    public void setUp() {
+        env = new SimulatedLab(42, 50);
+        stateCount = env.getStateCount();
+        qTables = new QTableStore(stateCount, env.getActionCount());
+        goal = qTables.addGoal("[2,3]");
+        for (int s = 0; s < stateCount; s++) {
+            for (int action = 0; action < env.getActionCount(); action++) {
+                qTables.set(goal, s, action, random.nextDouble() * 100);
+            }
+        }
+        params = QLearner.HyperParams.create(0.2, 0.8, 0.2, 100, 1);
+    }
+
+    private int nextState() {
+        state = (state + 1) % stateCount;
+        return state;
+    }
+
+    @Benchmark
+    public int getMaxValueIndex() {
+        int s = nextState();
+        return QLearner.getMaxValueIndex(random, qTables, qTables.rowOffset(goal, s), env.getApplicableActionArray(s));
+    }
+
+    @Benchmark
+    public double getMaxQSA() {
+        return QLearner.getMaxQSA(qTables, env, goal, nextState());
+    }
+
+    /**
+     * A single Q update, as performed for every action of an episode
+     */
+    @Benchmark
+    public double updateQ() {
+        int s = nextState();
+        int[] actions = env.getApplicableActionArray(s);
+        int action = actions[s % actions.length];
+        QLearner.updateQ(qTables, env, params, goal, s, action, 0, (s * 7 + 1) % stateCount);
+        return qTables.get(goal, s, action);
+    }
+}
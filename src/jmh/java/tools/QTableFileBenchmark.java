@@ -0,0 +1,84 @@
+package tools;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of loading and saving the Q tables of all 16 goals of the lab with
+ * {@link QTableFile}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QTableFileBenchmark {
+
+    private static final int STATE_COUNT = 1024;
+    private static final int ACTION_COUNT = 8;
+
+    private final Random random = new Random(42);
+    private QTableStore qTables;
+    private Path path;
+    private Path newPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        qTables = new QTableStore(STATE_COUNT, ACTION_COUNT);
+        for (int z1 = 0; z1 < 4; z1++) {
+            for (int z2 = 0; z2 < 4; z2++) {
+                int goal = qTables.addGoal("[" + z1 + "," + z2 + "]");
+                for (int state = 0; state < STATE_COUNT; state++) {
+                    for (int action = 0; action < ACTION_COUNT; action++) {
+                        qTables.set(goal, state, action, random.nextDouble() * 100);
+                    }
+                }
+            }
+        }
+
+        path = Files.createTempFile("qtables", ".bin");
+        newPath = Files.createTempFile("qtables-new", ".bin");
+        QTableFile.write(path, qTables);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(newPath);
+    }
+
+    @Benchmark
+    public QTableStore load() throws IOException {
+        QTableStore loaded = new QTableStore(STATE_COUNT, ACTION_COUNT);
+        QTableFile.read(path, loaded);
+        return loaded;
+    }
+
+    /**
+     * Saves the tables to a new file; the file of the previous save is deleted within the
+     * benchmark, as a setup per invocation would distort the times of all benchmarks
+     */
+    @Benchmark
+    public void save() throws IOException {
+        Files.deleteIfExists(newPath);
+        QTableFile.write(newPath, qTables);
+    }
+
+    /**
+     * Saves the tables over the file of the previous save, after an episode has changed some Q values
+     */
+    @Benchmark
+    public void saveChanged() throws IOException {
+        for (int update = 0; update < 100; update++) {
+            qTables.set(random.nextInt(16), random.nextInt(STATE_COUNT), random.nextInt(ACTION_COUNT),
+                    random.nextDouble() * 100);
+        }
+        QTableFile.write(path, qTables);
+    }
+}
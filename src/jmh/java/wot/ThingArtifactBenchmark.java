@@ -0,0 +1,85 @@
+package wot;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.openjdk.jmh.annotations.*;
+
+import cartago.OpFeedbackParam;
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
+import ch.unisg.ics.interactions.wot.td.affordances.ActionAffordance;
+import ch.unisg.ics.interactions.wot.td.affordances.Form;
+import ch.unisg.ics.interactions.wot.td.affordances.PropertyAffordance;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpRequest;
+import ch.unisg.ics.interactions.wot.td.clients.TDHttpResponse;
+import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
+import ch.unisg.ics.interactions.wot.td.schemas.DataSchema;
+import ch.unisg.ics.interactions.wot.td.vocabularies.TD;
+import tools.LabStub;
+
+/**
+ * Benchmarks of the encoding of action payloads and the decoding of property payloads by
+ * {@link ThingArtifact}, with the affordances of the lab. No request is sent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThingArtifactBenchmark {
+  private static final Object[] ACTION_TAGS = { "http://example.org/was#Z1Light" };
+  private static final Object[] ACTION_PAYLOAD = { true };
+
+  private ThingArtifact artifact;
+  private Form actionForm;
+  private Optional<DataSchema> actionSchema;
+  private DataSchema statusSchema;
+  private TDHttpResponse statusResponse;
+
+  @Setup
+  public void setUp() throws IOException {
+    ThingDescription td = TDGraphReader.readFromString(TDFormat.RDF_TURTLE,
+        LabStub.readThingDescription("http://localhost:8080"));
+
+    ActionAffordance action = td.getFirstActionBySemanticType("http://example.org/was#SetZ1Light")
+        .get();
+    actionForm = action.getFirstFormForOperationType(TD.invokeAction).get();
+    actionSchema = action.getInputSchema();
+
+    PropertyAffordance status = td.getFirstPropertyBySemanticType(StatusSnapshotService.STATUS_TYPE)
+        .get();
+    statusSchema = status.getDataSchema();
+
+    BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+    response.setEntity(new StringEntity(LabStub.STATUS, ContentType.APPLICATION_JSON));
+    statusResponse = new TDHttpResponse(response);
+
+    artifact = new ThingArtifact();
+  }
+
+  /**
+   * Encodes the object payload of an action, e.g. for invokeAction(SetZ1Light, [Z1Light], [true])
+   */
+  @Benchmark
+  public Optional<TDHttpRequest> encodeObjectPayload() {
+    return artifact.createRequest(TD.invokeAction, actionForm, actionSchema, ACTION_TAGS,
+        ACTION_PAYLOAD);
+  }
+
+  /**
+   * Decodes the object payload of the status property, e.g. for readProperty(Status, Tags, Values)
+   */
+  @Benchmark
+  public Object[] decodeObjectPayload() {
+    OpFeedbackParam<Object[]> tags = new OpFeedbackParam<>();
+    OpFeedbackParam<Object[]> output = new OpFeedbackParam<>();
+    artifact.readPayloadWithSchema(statusResponse, statusSchema, Optional.of(tags), output);
+    return output.get();
+  }
+}
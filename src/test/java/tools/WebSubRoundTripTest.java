@@ -0,0 +1,76 @@
+package tools;
+
+import ch.unisg.ics.interactions.wot.td.ThingDescription;
+import ch.unisg.ics.interactions.wot.td.ThingDescription.TDFormat;
+import ch.unisg.ics.interactions.wot.td.io.TDGraphReader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import wot.StatusSnapshotService;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a WebSub round trip against a local {@link LabStub} and {@link HubStub}: the status
+ * snapshot of the lab subscribes to the hub, the hub verifies the subscription, and a pushed
+ * status replaces the status that was read from the stub, while a notification that is not a
+ * status is dropped.
+ */
+public class WebSubRoundTripTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * A status of the state [0, 0, 1, 0, 0, 1, 2], unlike the status of the stub
+     */
+    private static final String PUSHED_STATUS = "{\"Z1Level\":20.0,\"Z2Level\":20.0,\"Z1Light\":true,"
+            + "\"Z2Light\":false,\"Z1Blinds\":false,\"Z2Blinds\":true,\"Sunshine\":650.0}";
+
+    @BeforeClass
+    public static void setUpCallback() throws IOException {
+        // the callback server of the subscriber is started once and is not stopped
+        System.setProperty("wot.websub.callbackUrl", "http://localhost:" + findFreePort());
+    }
+
+    @Test
+    public void pushedStatusReplacesPolledStatus() throws Exception {
+        try (LabStub labStub = LabStub.start(); HubStub hub = HubStub.start()) {
+            String topic = labStub.getUrl();
+            Lab lab = new Lab(topic);
+            int polledState = lab.readCurrentState();
+            assertTrue("the lab cannot read the status of the stub", polledState >= 0);
+
+            ThingDescription td = TDGraphReader.readFromURL(TDFormat.RDF_TURTLE, topic);
+            StatusSnapshotService snapshots = StatusSnapshotService.forThing(topic, td);
+            BlockingQueue<String> pushed = new LinkedBlockingQueue<>();
+            snapshots.addListener(status -> pushed.add(status.getPayload().orElse("")));
+
+            assertTrue("the subscriber is not available", snapshots.subscribe(hub.getUrl(), topic));
+            assertTrue("the hub did not verify the subscription", hub.awaitSubscriber(topic, TIMEOUT_MILLIS));
+
+            // notifications of other events of the Thing are not statuses
+            hub.publish(topic, "lightChanged(\"Z1Light\", true)");
+            hub.publish(topic, PUSHED_STATUS);
+
+            assertEquals(PUSHED_STATUS, pushed.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+            int pushedState = lab.readCurrentState();
+            assertNotEquals("the lab still reads the polled state", polledState, pushedState);
+            assertEquals(Arrays.<Object>asList(0, 0, true, false, false, true, 2), lab.describeState(pushedState));
+        }
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
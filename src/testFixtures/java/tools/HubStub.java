@@ -0,0 +1,185 @@
+package tools;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for a WebSub hub (e.g. Yggdrasil), so that the subscriptions of
+ * {@link wot.StatusSnapshotService} can be checked without the network. The stub accepts
+ * every subscription request, verifies the intent of the subscriber with a challenge, and
+ * sends the notifications of {@link #publish(String, String)} to the verified subscribers.
+ */
+public final class HubStub implements AutoCloseable {
+
+    private static final long LEASE_SECONDS = 3600;
+
+    private final HttpServer server;
+    private final String base;
+    private final ExecutorService verifications = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hub-stub-verifications");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<String[]> subscribers = new CopyOnWriteArrayList<>(); // pairs of topic and callback
+
+    private HubStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        base = "http://localhost:" + server.getAddress().getPort();
+
+        server.createContext("/hub", this::handle);
+        server.start();
+    }
+
+    /**
+     * Starts a stub on a free local port
+     *
+     * @return the stub, which must be closed
+     * @throws IOException if the server cannot be started
+     */
+    public static HubStub start() throws IOException {
+        return new HubStub();
+    }
+
+    public String getUrl() {
+        return base + "/hub";
+    }
+
+    /**
+     * Waits until a subscriber of a topic has been verified
+     *
+     * @param topic        the URL of the topic
+     * @param timeoutMillis the time to wait at most
+     * @return true if a subscriber of the topic has been verified within the time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean awaitSubscriber(String topic, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (System.nanoTime() - deadline < 0) {
+            for (String[] subscriber : subscribers) {
+                if (subscriber[0].equals(topic)) {
+                    return true;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    /**
+     * Sends a notification to every verified subscriber of a topic
+     *
+     * @param topic   the URL of the topic
+     * @param content the content of the notification
+     * @return the number of subscribers that accepted the notification
+     * @throws IOException if a subscriber cannot be reached
+     */
+    public int publish(String topic, String content) throws IOException {
+        int accepted = 0;
+        for (String[] subscriber : subscribers) {
+            if (!subscriber[0].equals(topic)) {
+                continue;
+            }
+            HttpURLConnection connection = (HttpURLConnection) new URL(subscriber[1]).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(content.getBytes(StandardCharsets.UTF_8));
+            }
+            int statusCode = connection.getResponseCode();
+            connection.disconnect();
+            if (statusCode >= 200 && statusCode < 300) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        verifications.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+
+        Map<String, String> form = parseForm(body);
+        String topic = form.get("hub.topic");
+        String callback = form.get("hub.callback");
+        if (!"POST".equals(exchange.getRequestMethod()) || !"subscribe".equals(form.get("hub.mode"))
+                || topic == null || callback == null) {
+            respond(exchange, 400);
+            return;
+        }
+
+        // the intent of the subscriber is verified after the request has been accepted
+        respond(exchange, 202);
+        verifications.execute(() -> verify(topic, callback));
+    }
+
+    private void verify(String topic, String callback) {
+        String challenge = UUID.randomUUID().toString();
+        try {
+            URL url = new URL(callback + (callback.contains("?") ? "&" : "?")
+                    + "hub.mode=subscribe"
+                    + "&hub.topic=" + URLEncoder.encode(topic, "UTF-8")
+                    + "&hub.challenge=" + challenge
+                    + "&hub.lease_seconds=" + LEASE_SECONDS);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            int statusCode = connection.getResponseCode();
+            String echo;
+            try (InputStream in = statusCode == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+                echo = in == null ? "" : new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+            }
+            connection.disconnect();
+
+            if (statusCode == 200 && challenge.equals(echo)) {
+                subscribers.add(new String[]{topic, callback});
+            }
+        } catch (IOException e) {
+            // subscribers that cannot be reached are not verified
+        }
+    }
+
+    private static Map<String, String> parseForm(String body) throws UnsupportedEncodingException {
+        Map<String, String> form = new HashMap<>();
+        for (String param : body.split("&")) {
+            int separator = param.indexOf('=');
+            if (separator > 0) {
+                form.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return form;
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode) throws IOException {
+        exchange.sendResponseHeaders(statusCode, -1);
+        exchange.close();
+    }
+}
@@ -0,0 +1,97 @@
+package tools;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local stand-in for the lab Thing, so that the benchmarks and tests do not depend on the
+ * network. The stub serves the Thing Description of lab-td.ttl, a fixed status, and
+ * accepts every action.
+ */
+public final class LabStub implements AutoCloseable {
+
+    /**
+     * The status served by the stub, which corresponds to the state [2, 3, 1, 0, 0, 1, 2]
+     */
+    public static final String STATUS = "{\"Z1Level\":120.0,\"Z2Level\":320.0,\"Z1Light\":true,"
+            + "\"Z2Light\":false,\"Z1Blinds\":false,\"Z2Blinds\":true,\"Sunshine\":650.0}";
+
+    private final HttpServer server;
+    private final String base;
+    private final byte[] thingDescription;
+
+    private LabStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        base = "http://localhost:" + server.getAddress().getPort();
+        thingDescription = readThingDescription(base).getBytes(StandardCharsets.UTF_8);
+
+        server.createContext("/lab", this::handle);
+        server.start();
+    }
+
+    /**
+     * Starts a stub on a free local port
+     *
+     * @return the stub, which must be closed
+     * @throws IOException if the server cannot be started
+     */
+    public static LabStub start() throws IOException {
+        return new LabStub();
+    }
+
+    /**
+     * Returns the Thing Description of the stub, with the given base URL for its forms
+     *
+     * @param base the base URL, e.g. http://localhost:8080
+     * @return the Thing Description in Turtle
+     * @throws IOException if the resource cannot be read
+     */
+    public static String readThingDescription(String base) throws IOException {
+        return Resources.toString(Resources.getResource("lab-td.ttl"), StandardCharsets.UTF_8)
+                .replace("${base}", base);
+    }
+
+    public String getUrl() {
+        return base + "/lab";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            ByteStreams.exhaust(body);
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if ("/lab".equals(path)) {
+            respond(exchange, 200, "text/turtle", thingDescription);
+        } else if ("/lab/properties/status".equals(path)) {
+            respond(exchange, 200, "application/json", STATUS.getBytes(StandardCharsets.UTF_8));
+        } else if (path.startsWith("/lab/actions/") && "POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 200, "application/json", new byte[0]);
+        } else {
+            respond(exchange, 404, "text/plain", new byte[0]);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}